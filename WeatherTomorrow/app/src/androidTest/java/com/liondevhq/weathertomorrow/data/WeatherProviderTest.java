@@ -0,0 +1,208 @@
+package com.liondevhq.weathertomorrow.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.liondevhq.weathertomorrow.data.WeatherContract.ForecastEntry;
+import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the updates of {@link WeatherProvider} against the database of the app. Every city of
+ * the tests starts with {@link #CITY_PREFIX}, and only those are removed again.
+ */
+public class WeatherProviderTest extends AndroidTestCase {
+
+    /** Start of the names of the test cities */
+    private static final String CITY_PREFIX = "WeatherProviderTest ";
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getContext().getContentResolver();
+        deleteTestCities();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestCities();
+        super.tearDown();
+    }
+
+    public void testApplyBatch_updatesThatChangeNothing_keepOtherOperations() throws Exception {
+        insertCity("Paris", "fr");
+        Uri parisUs = insertCity("Paris", "us");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(newInsert("London", "gb"));
+        // A city that is gone
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(WeatherEntry.CONTENT_URI, Integer.MAX_VALUE))
+                .withValue(WeatherEntry.COLUMN_WEATHER_COUNTRY, "de")
+                .build());
+        // Only the country, which would make it a duplicate of the other Paris
+        operations.add(ContentProviderOperation.newUpdate(parisUs)
+                .withValue(WeatherEntry.COLUMN_WEATHER_COUNTRY, "fr")
+                .build());
+        operations.add(newInsert("Berlin", "de"));
+        ContentProviderResult[] results = mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                operations);
+
+        assertEquals(0, (int) results[1].count);
+        assertEquals(0, (int) results[2].count);
+        // The operations around them are committed
+        assertNotNull(results[0].uri);
+        assertNotNull(results[3].uri);
+        assertEquals("gb", getCountry(results[0].uri));
+        assertEquals("de", getCountry(results[3].uri));
+        assertEquals("us", getCountry(parisUs));
+    }
+
+    public void testUpdate_countryOnly_toOtherCity_isIgnored() {
+        insertCity("Paris", "fr");
+        Uri parisUs = insertCity("Paris", "us");
+
+        // The city of the row is taken with the new country, whatever the case
+        assertEquals(0, updateCountry(parisUs, "FR"));
+        assertEquals("us", getCountry(parisUs));
+    }
+
+    public void testUpdate_countryOnly_toNewCity_isApplied() {
+        insertCity("Paris", "fr");
+        Uri parisUs = insertCity("Paris", "us");
+
+        assertEquals(1, updateCountry(parisUs, "ca"));
+        assertEquals("ca", getCountry(parisUs));
+    }
+
+    public void testUpdate_movedCity_losesForecastAndOwmId() {
+        Uri paris = insertCityWithForecast("Paris", "fr");
+
+        assertEquals(1, updateCountry(paris, "us"));
+        assertFalse(hasForecast(paris));
+        assertTrue(isOwmIdNull(paris));
+    }
+
+    public void testUpdate_caseOnly_keepsForecastAndOwmId() {
+        Uri paris = insertCityWithForecast("Paris", "fr");
+
+        assertEquals(1, updateCountry(paris, "FR"));
+        assertTrue(hasForecast(paris));
+        assertFalse(isOwmIdNull(paris));
+    }
+
+    public void testUpdate_ignored_keepsForecastAndOwmId() {
+        insertCity("Paris", "us");
+        Uri paris = insertCityWithForecast("Paris", "fr");
+
+        assertEquals(0, updateCountry(paris, "us"));
+        assertTrue(hasForecast(paris));
+        assertFalse(isOwmIdNull(paris));
+    }
+
+    /**
+     * Insert a test city and return its URI.
+     */
+    private Uri insertCity(String city, String country) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_WEATHER_CITY, CITY_PREFIX + city);
+        values.put(WeatherEntry.COLUMN_WEATHER_COUNTRY, country);
+        Uri uri = mResolver.insert(WeatherEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    /**
+     * Insert a test city with an OpenWeatherMap id and a cached forecast and return its URI.
+     */
+    private Uri insertCityWithForecast(String city, String country) {
+        Uri uri = insertCity(city, country);
+        ContentValues owmIdValues = new ContentValues();
+        owmIdValues.put(WeatherEntry.COLUMN_WEATHER_OWM_ID, 2988507);
+        assertEquals(1, mResolver.update(uri, owmIdValues, null, null));
+
+        ContentValues values = new ContentValues();
+        values.put(ForecastEntry.COLUMN_FORECAST_WEATHER_ID, ContentUris.parseId(uri));
+        values.put(ForecastEntry.COLUMN_FORECAST_CITY, city);
+        values.put(ForecastEntry.COLUMN_FORECAST_TEMP_MIN, 1.5);
+        values.put(ForecastEntry.COLUMN_FORECAST_TEMP_MAX, 7.25);
+        values.put(ForecastEntry.COLUMN_FORECAST_HUMIDITY, 80);
+        values.put(ForecastEntry.COLUMN_FORECAST_CONDITION_ID, 803);
+        values.put(ForecastEntry.COLUMN_FORECAST_WIND_SPEED, 4.1);
+        values.put(ForecastEntry.COLUMN_FORECAST_FETCHED_AT, System.currentTimeMillis());
+        assertTrue(getDatabase().insert(ForecastEntry.TABLE_NAME, null, values) != -1);
+        return uri;
+    }
+
+    private static ContentProviderOperation newInsert(String city, String country) {
+        return ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_WEATHER_CITY, CITY_PREFIX + city)
+                .withValue(WeatherEntry.COLUMN_WEATHER_COUNTRY, country)
+                .build();
+    }
+
+    private int updateCountry(Uri uri, String country) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_WEATHER_COUNTRY, country);
+        return mResolver.update(uri, values, null, null);
+    }
+
+    /**
+     * Returns the country of the city with the given URI, or null if it isn't there.
+     */
+    private String getCountry(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] { WeatherEntry.COLUMN_WEATHER_COUNTRY },
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns true if the city with the given URI has a cached forecast.
+     */
+    private boolean hasForecast(Uri uri) {
+        Cursor cursor = getDatabase().query(ForecastEntry.TABLE_NAME,
+                new String[] { ForecastEntry._ID }, ForecastEntry.COLUMN_FORECAST_WEATHER_ID + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(uri)) }, null, null, null);
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isOwmIdNull(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] { WeatherEntry.COLUMN_WEATHER_OWM_ID },
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.isNull(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SQLiteDatabase getDatabase() {
+        return WeatherDbHelper.getInstance(getContext()).getWritableDatabase();
+    }
+
+    private void deleteTestCities() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_WEATHER_CITY + " LIKE ?",
+                new String[] { CITY_PREFIX + "%" });
+    }
+}
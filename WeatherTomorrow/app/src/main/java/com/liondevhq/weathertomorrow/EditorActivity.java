@@ -2,7 +2,9 @@ package com.liondevhq.weathertomorrow;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -21,6 +23,7 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.liondevhq.weathertomorrow.data.WeatherContract;
+import com.liondevhq.weathertomorrow.data.WeatherWriter;
 
 /**
  * Created by pc on 21.02.2017.
@@ -206,40 +209,54 @@ public class EditorActivity extends AppCompatActivity implements
         values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_CITY, cityString);
         values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_COUNTRY, countryString);
 
+        // The write is applied off the main thread and the editor is closed right away,
+        // so the toasts are shown with the application context
+        final Context context = getApplicationContext();
 
         // Determine if this is a new or existing forecast city by checking if mCurrentCityUri is null or not
         if (mCurrentCityUri == null) {
             // This is a NEW city, so insert a new city into the provider,
-            // returning the content URI for the new city.
-            Uri newUri = getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_forecast_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_forecast_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // the listener gets the content URI for the city.
+            WeatherWriter.getInstance(this).startInsert(values,
+                    new WeatherWriter.OnInsertCompleteListener() {
+                        @Override
+                        public void onInsertComplete(Uri uri, boolean existed) {
+                            // Show a toast message depending on whether or not the insertion was successful.
+                            if (uri == null) {
+                                // If there is no content URI, then there was an error with insertion.
+                                Toast.makeText(context, context.getString(R.string.editor_insert_forecast_failed),
+                                        Toast.LENGTH_SHORT).show();
+                            } else if (existed) {
+                                // The city was in the list already, so nothing was saved.
+                                Toast.makeText(context, context.getString(R.string.editor_insert_forecast_exists),
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                // Otherwise, the insertion was successful and we can display a toast.
+                                Toast.makeText(context, context.getString(R.string.editor_insert_forecast_successful),
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         } else {
             // Otherwise this is an EXISTING forecast city, so update the city with content URI: mCurrentCityUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentCityUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentCityUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_forecast_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_forecast_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // and pass in the new ContentValues. The mCurrentCityUri will already identify
+            // the correct row in the database that we want to modify.
+            WeatherWriter.getInstance(this).startUpdate(mCurrentCityUri, values,
+                    new WeatherWriter.OnWriteCompleteListener() {
+                        @Override
+                        public void onWriteComplete(ContentProviderResult result) {
+                            // Show a toast message depending on whether or not the update was successful.
+                            if (result == null || result.count == null || result.count == 0) {
+                                // If no rows were affected, then there was an error with the update.
+                                Toast.makeText(context, context.getString(R.string.editor_update_forecast_failed),
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                // Otherwise, the update was successful and we can display a toast.
+                                Toast.makeText(context, context.getString(R.string.editor_update_forecast_successful),
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         }
     }
 
@@ -356,21 +373,25 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteForecast() {
         // Only perform the delete if this is an existing forecast city.
         if (mCurrentCityUri != null) {
-            // Call the ContentResolver to delete the forecast city at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentCityUri
-            // content URI already identifies the forecast city that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentCityUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_forecast_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_forecast_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the forecast city at the given content URI off the main thread.
+            // The mCurrentCityUri content URI already identifies the forecast city that we want.
+            final Context context = getApplicationContext();
+            WeatherWriter.getInstance(this).startDelete(mCurrentCityUri,
+                    new WeatherWriter.OnWriteCompleteListener() {
+                        @Override
+                        public void onWriteComplete(ContentProviderResult result) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            if (result == null || result.count == null || result.count == 0) {
+                                // If no rows were deleted, then there was an error with the delete.
+                                Toast.makeText(context, context.getString(R.string.editor_delete_forecast_failed),
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                // Otherwise, the delete was successful and we can display a toast.
+                                Toast.makeText(context, context.getString(R.string.editor_delete_forecast_successful),
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         }
 
         // Close the activity
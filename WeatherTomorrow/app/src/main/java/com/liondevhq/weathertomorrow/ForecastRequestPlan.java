@@ -0,0 +1,117 @@
+package com.liondevhq.weathertomorrow;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Plans the requests of a refresh while the cities are read from the database, one row at
+ * a time. Rows of the same city share a single request, and a city that any of its rows has
+ * fetched before is requested by its OpenWeatherMap id.
+ */
+final class ForecastRequestPlan {
+
+    /** URL for forecast data from the OpenWeatherMap dataset, the server is set in build.gradle */
+    private static final String OWM_REQUEST_URL = BuildConfig.OWM_BASE_URL + "/data/2.5/forecast";
+
+    /**
+     * Units every forecast is requested and cached in. The temperature unit of the settings
+     * is applied by {@link WeatherDisplay.Formatter}, so changing it needs no new request.
+     */
+    private static final String OWM_REQUEST_UNITS = "metric";
+
+    /** Planned city of every "city,country" in lower case, in the order of their first rows */
+    private final Map<String, PlannedCity> mCities = new LinkedHashMap<>();
+
+    /** Number of rows that need a fetch */
+    private int mRowCount;
+
+    /**
+     * Add a row of the weather table.
+     *
+     * @param city "city,country" of the row
+     * @param owmId OpenWeatherMap id of the city, null if the row hasn't been fetched yet
+     * @param fetch true if the row needs a fetch, false if it only may know the city's id
+     */
+    void addRow(int idDB, String city, Integer owmId, boolean fetch) {
+        String cityKey = city.toLowerCase(Locale.US);
+        PlannedCity plannedCity = mCities.get(cityKey);
+        if (plannedCity == null) {
+            plannedCity = new PlannedCity(city);
+            mCities.put(cityKey, plannedCity);
+        }
+        if (plannedCity.mOwmId == null) {
+            plannedCity.mOwmId = owmId;
+        }
+        if (fetch) {
+            plannedCity.mRows.add(idDB);
+            mRowCount++;
+        }
+    }
+
+    /**
+     * Returns true if no row needs a fetch.
+     */
+    boolean isEmpty() {
+        return mRowCount == 0;
+    }
+
+    /**
+     * Returns the requests of the rows that need a fetch, keyed by request URL, with the
+     * database ids of every row that shows the city.
+     */
+    Map<String, List<Integer>> getRequests() {
+        Map<String, List<Integer>> requests = new LinkedHashMap<>();
+        for (PlannedCity plannedCity : mCities.values()) {
+            if (!plannedCity.mRows.isEmpty()) {
+                requests.put(buildRequestUrl(plannedCity.mCity, plannedCity.mOwmId),
+                        plannedCity.mRows);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Build the OpenWeatherMap request URL for the given city. A city that has been fetched
+     * before is requested by its OpenWeatherMap id instead of the "city,country" name lookup.
+     */
+    private static String buildRequestUrl(String city, Integer owmId) {
+        Uri baseUri = Uri.parse(OWM_REQUEST_URL);
+        Uri.Builder uriBuilder = baseUri.buildUpon();
+
+        if (owmId != null) {
+            uriBuilder.appendQueryParameter("id", String.valueOf(owmId));
+        } else {
+            uriBuilder.appendQueryParameter("q", city);
+        }
+        uriBuilder.appendQueryParameter("cnt", "16");
+        uriBuilder.appendQueryParameter("units", OWM_REQUEST_UNITS);
+        uriBuilder.appendQueryParameter("appid", BuildConfig.OWM_APP_ID);
+
+        return uriBuilder.toString();
+    }
+
+    /**
+     * A city of the plan and the rows that need its forecast.
+     */
+    private static final class PlannedCity {
+
+        /** "city,country" as written in the first row of the city */
+        final String mCity;
+
+        /** OpenWeatherMap id of the city, null until a row knows it */
+        Integer mOwmId;
+
+        /** Database ids of the rows that need a fetch */
+        final List<Integer> mRows = new ArrayList<>();
+
+        PlannedCity(String city) {
+            mCity = city;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.liondevhq.weathertomorrow;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.liondevhq.weathertomorrow.core.metrics.MetricsRegistry;
+
+/**
+ * Debug screen that shows the timings of the forecast requests and refreshes
+ * of this process, see {@link MetricsRegistry}.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /** TextView with the report */
+    private TextView mReportView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+
+        mReportView = (TextView) findViewById(R.id.metrics_report);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    /**
+     * Show the current report of the metrics.
+     */
+    private void showReport() {
+        mReportView.setText(MetricsRegistry.getDefault().report());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            // Respond to a click on the "Refresh" menu option
+            case R.id.action_refresh_metrics:
+                showReport();
+                return true;
+            // Respond to a click on the "Share Report" menu option
+            case R.id.action_share_metrics:
+                Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                shareIntent.setType("text/plain");
+                shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+                shareIntent.putExtra(Intent.EXTRA_TEXT, MetricsRegistry.getDefault().report());
+                startActivity(Intent.createChooser(shareIntent, getString(R.string.action_share_metrics)));
+                return true;
+            // Respond to a click on the "Reset" menu option
+            case R.id.action_reset_metrics:
+                MetricsRegistry.getDefault().reset();
+                showReport();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -4,28 +4,22 @@ package com.liondevhq.weathertomorrow;
  * Created by pc on 21.01.2017.
  */
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.liondevhq.weathertomorrow.core.FetchCancellation;
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+import com.liondevhq.weathertomorrow.core.ForecastFetcher;
+import com.liondevhq.weathertomorrow.core.ForecastResponse;
+import com.liondevhq.weathertomorrow.core.RequestScheduler;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper methods related to requesting and receiving forecasts data from OpenWeatherMap.
@@ -47,36 +41,154 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /** Day of the forecast that is shown, 0 is today and 1 is tomorrow in the city's local time */
+    private static final int FORECAST_DAY = 1;
+
+    /**
+     * Number of worker threads used to fetch forecasts when the caller doesn't specify it.
+     * It stays below the 5 idle connections the platform keeps per host, so every worker
+     * reuses a warm connection across the cities of a refresh.
+     */
+    public static final int DEFAULT_FETCH_POOL_SIZE = 4;
+
+    /**
+     * Listener that is told about every city as soon as its forecast has been parsed
+     * or its request has failed.
+     */
+    public interface OnForecastLoadedListener {
+
+        /**
+         * Called on a worker thread for every city that has been fetched successfully.
+         */
+        void onForecastLoaded(Weather weather);
+
+        /**
+         * Called on a worker thread for every city whose request or parsing failed,
+         * or whose response has no forecast of tomorrow.
+         *
+         * @param idDB database id of the city
+         */
+        void onForecastFailed(int idDB);
+    }
+
     /**
      * Query the OpenWeatherMap dataset and return a list of {@link Weather} objects.
+     * Every request URL is fetched once, and its forecast is returned for each of the
+     * database ids it is mapped to.
+     */
+    public static List<Weather> fetchForecastData(Map<String, List<Integer>> requestUrlList) {
+        return fetchForecastData(requestUrlList, DEFAULT_FETCH_POOL_SIZE, null);
+    }
+
+    /**
+     * Query the OpenWeatherMap dataset and return a list of {@link Weather} objects,
+     * passing every forecast to the listener as soon as it has been parsed.
+     */
+    public static List<Weather> fetchForecastData(Map<String, List<Integer>> requestUrlList,
+                                                  OnForecastLoadedListener listener) {
+        return fetchForecastData(requestUrlList, DEFAULT_FETCH_POOL_SIZE, listener);
+    }
+
+    /**
+     * Query the OpenWeatherMap dataset using up to poolSize concurrent requests and return
+     * a list of {@link Weather} objects in the same order as the given map, one for every
+     * database id. A city that fails to load is returned as null without affecting the other
+     * cities. If the listener is not null, it gets every forecast as soon as it has been parsed.
      */
-    public static List<Weather> fetchForecastData(Map<String, Integer> requestUrlList) {
+    public static List<Weather> fetchForecastData(Map<String, List<Integer>> requestUrlList,
+                                                  int poolSize,
+                                                  OnForecastLoadedListener listener) {
+        return fetchForecastData(requestUrlList, poolSize, listener, null);
+    }
 
-        //Create list for holding elements that come back from HTTP request
-        List<Weather> weatherList = new ArrayList<>();
+    /**
+     * Query the OpenWeatherMap dataset like {@link #fetchForecastData(Map, int,
+     * OnForecastLoadedListener)} until the given cancellation is canceled. The cities
+     * that aren't done by then are returned as null.
+     */
+    public static List<Weather> fetchForecastData(Map<String, List<Integer>> requestUrlList,
+                                                  int poolSize,
+                                                  final OnForecastLoadedListener listener,
+                                                  FetchCancellation cancellation) {
+        // Database ids and URL objects of the requests, in the order of the map. The rows of
+        // a request start at its offset in the result.
+        final int[][] idDbList = new int[requestUrlList.size()][];
+        final int[] offsets = new int[requestUrlList.size()];
+        List<URL> urls = new ArrayList<>(requestUrlList.size());
+        int rowCount = 0;
+        for (Map.Entry<String, List<Integer>> entry : requestUrlList.entrySet()) {
+            int index = urls.size();
+            List<Integer> ids = entry.getValue();
+            idDbList[index] = new int[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                idDbList[index][i] = ids.get(i);
+            }
+            offsets[index] = rowCount;
+            rowCount += ids.size();
+            urls.add(createUrl(entry.getKey()));
+        }
 
-        //For every income url create URL object, perform HTTP request and receive a JSON response back
-        for (Map.Entry<String,Integer> entry : requestUrlList.entrySet()) {
-            // Create URL object
-            URL url = createUrl(entry.getKey());
+        // Older responses have no timezone of the city, use the one of the device then
+        final long now = System.currentTimeMillis();
+        int defaultUtcOffset = (int) TimeUnit.MILLISECONDS.toSeconds(
+                TimeZone.getDefault().getOffset(now));
+
+        // Every city is turned into a {@link Weather} for each of its rows on the worker thread
+        // that fetched it
+        final Weather[] forecasts = new Weather[rowCount];
+        ForecastFetcher.Listener fetcherListener = new ForecastFetcher.Listener() {
+            @Override
+            public void onForecastFetched(int index, ForecastResponse response) {
+                for (int i = 0; i < idDbList[index].length; i++) {
+                    int idDB = idDbList[index][i];
+                    Weather weather = toWeather(idDB, response, now);
+                    forecasts[offsets[index] + i] = weather;
+                    if (listener == null) {
+                        continue;
+                    }
+                    if (weather != null) {
+                        listener.onForecastLoaded(weather);
+                    } else {
+                        listener.onForecastFailed(idDB);
+                    }
+                }
+            }
 
-            // Perform HTTP request to the URL and receive a JSON response back
-            String jsonResponse = null;
-            try {
-                jsonResponse = makeHttpRequest(url);
-            } catch (IOException e) {
-                Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+            @Override
+            public void onForecastFailed(int index, Exception e) {
+                Log.e(LOG_TAG, "Problem fetching the forecast.", e);
+                if (listener != null) {
+                    for (int idDB : idDbList[index]) {
+                        listener.onForecastFailed(idDB);
+                    }
+                }
             }
+        };
+        // The responses are only passed through, each one is dropped once it is a Weather
+        ForecastFetcher.fetchEach(urls, poolSize, defaultUtcOffset, fetcherListener,
+                RequestScheduler.getDefault(), cancellation);
 
-            // Extract relevant fields from the JSON response and create a {@link Weather} object
-            Weather weather = extractFeatureFromJson(jsonResponse, entry.getValue());
+        // Return the list of {@link Weather} objects, the workers are done with the array now
+        return Arrays.asList(forecasts);
+    }
 
-            //Add received weather object to list
-            weatherList.add(weather);
+    /**
+     * Build the {@link Weather} of tomorrow from the parsed response of a single city.
+     * Return null if the response has no intervals of tomorrow.
+     */
+    private static Weather toWeather(int idDB, ForecastResponse response, long now) {
+        DaySummary day = response.getDay(TimeUnit.MILLISECONDS.toSeconds(now), FORECAST_DAY);
+        if (day == null) {
+            Log.e(LOG_TAG, "No intervals of tomorrow in the forecasts JSON results");
+            return null;
         }
 
-        // Return the list of {@link Weather} objects
-        return weatherList;
+        // Create a new {@link Weather} object with the forecast city, min and max temperature,
+        // and url from the JSON response.
+        int cityId = response.getCityId();
+        return new Weather(idDB, cityId, response.getCityName() + ", " + response.getCityCountry(),
+                day.tempMin, day.tempMax, BASE_URL + cityId, (int) Math.round(day.humidity),
+                day.conditionId, day.description, round(day.windSpeed, 2));
     }
 
     /**
@@ -92,68 +204,6 @@ public final class QueryUtils {
         return url;
     }
 
-    /**
-     * Make an HTTP request to the given URL and return a String as the response.
-     */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
-        }
-
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
-            }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the forecasts JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies that an IOException
-                // could be thrown.
-                inputStream.close();
-            }
-        }
-        return jsonResponse;
-    }
-
-    /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
-     */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
-        }
-        return output.toString();
-    }
-
     /***
      * Round double value to a number of places
      * @param value - double number
@@ -163,254 +213,7 @@ public final class QueryUtils {
     private static double round(double value, int places) {
         if (places < 0) throw new IllegalArgumentException();
 
-        BigDecimal bd = new BigDecimal(value);
-        bd = bd.setScale(places, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+        double scale = Math.pow(10, places);
+        return Math.round(value * scale) / scale;
     }
-
-    /**
-     * Return a list of {@link Weather} objects that has been built up from
-     * parsing the given JSON response.
-     */
-    private static Weather extractFeatureFromJson(String weatherJSON, int idDB) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(weatherJSON)) {
-            return null;
-        }
-
-        Weather weatherObject = null;
-
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
-        try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(weatherJSON);
-
-            //Get the city object from JSON
-            JSONObject cityObject = baseJsonResponse.getJSONObject("city");
-
-            // Extract the value for the key called "id"
-            int cityId = cityObject.getInt("id");
-
-            // Extract the value for the key called "name"
-            String cityName = cityObject.getString("name");
-
-            // Extract the value for the key called "country"
-            String cityCountry = cityObject.getString("country");
-
-            // Extract the JSONArray associated with the key called "list",
-            // which represents a list of weather 3-hours interval.
-            JSONArray weatherArray = baseJsonResponse.getJSONArray("list");
-
-            //To perfectly fetch the data from a server (see in documentation why)
-            //I need to compare quoters of the current day.
-            //Get current datetime
-            Calendar rightNow = Calendar.getInstance();
-            int hourOfDay = rightNow.get(Calendar.HOUR_OF_DAY);
-
-            //Set the counters for the future for cycle
-            int counterFrom = 0;
-            int counterTo = 0;
-
-            //Set switch that depends from the current quoter of the current day
-            //to set for cycle read only tomorrow data
-            switch(hourOfDay) {
-                case 0:
-                case 1:
-                case 2:
-                    counterFrom = 8;
-                    counterTo = 15;
-                    break;
-                case 3:
-                case 4:
-                case 5:
-                    counterFrom = 7;
-                    counterTo = 14;
-                    break;
-                case 6:
-                case 7:
-                case 8:
-                    counterFrom = 6;
-                    counterTo = 13;
-                    break;
-                case 9:
-                case 10:
-                case 11:
-                    counterFrom = 5;
-                    counterTo = 12;
-                    break;
-                case 12:
-                case 13:
-                case 14:
-                    counterFrom = 4;
-                    counterTo = 11;
-                    break;
-                case 15:
-                case 16:
-                case 17:
-                    counterFrom = 3;
-                    counterTo = 10;
-                    break;
-                case 18:
-                case 19:
-                case 20:
-                    counterFrom = 2;
-                    counterTo = 9;
-                    break;
-                case 21:
-                case 22:
-                case 23:
-                    counterFrom = 1;
-                    counterTo = 8;
-                    break;
-            }
-
-            //Get every quoter of tomorrow's day to fetch it's min and max temperature
-            double minTemp = 1000.0;
-            double maxTemp = -1000.0;
-
-            //Humidity sum holder
-            double humiditySum = 0;
-
-            //Wind speed sum holder
-            double windSpeedSum = 0;
-
-            //Id mapping
-            HashMap<String, Integer> idMap = new HashMap<String, Integer>();
-
-            //Description mapping
-            HashMap<String, Integer> descriptionMap = new HashMap<String, Integer>();
-
-            for (int i = counterFrom; i <= counterTo; i++) {
-                // Get a single weather forecast of current quoter
-                JSONObject weatherArrayJSONObject = weatherArray.getJSONObject(i);
-
-                //Extract object from list called "main"
-                JSONObject mainInfoFromListObject = weatherArrayJSONObject.getJSONObject("main");
-
-                // Extract the value for the key called "temp_min"
-                double min = mainInfoFromListObject.getDouble("temp_min");
-
-                //Compare initial min value and the min value from JSON
-                //Then assign min value to a minTemp variable
-                minTemp = Math.min(min, minTemp);
-
-                // Extract the value for the key called "temp_max"
-                double max = mainInfoFromListObject.getDouble("temp_max");
-
-                //Compare initial max value and the max value from JSON
-                //Then assign max value to a maxTemp variable
-                maxTemp = Math.max(max, maxTemp);
-
-                //Humidity addition
-                double humidityObject = mainInfoFromListObject.getDouble("humidity");
-                humiditySum += humidityObject;
-
-
-
-                //Extract array from list called "weather"
-                JSONArray weatherArrayInfoFromListObject = weatherArrayJSONObject.getJSONArray("weather");
-                //Zero object
-                JSONObject zeroObject = weatherArrayInfoFromListObject.getJSONObject(0);
-                //Get id of current weather
-                String IdObject = zeroObject.getString("id");
-
-                //Insert id value to the map if it exists
-                Integer countId = 0;
-                if (idMap.containsKey(IdObject)) {
-                    idMap.put(IdObject, countId + 1);
-                } else {
-                    idMap.put(IdObject, 1);
-                }
-                //Get description of current weather
-                String descriptionObject = zeroObject.getString("description");
-
-                //Insert description value to the map if it exists
-                Integer countDescription = 0;
-                if (descriptionMap.containsKey(descriptionObject)) {
-                    descriptionMap.put(descriptionObject, countDescription + 1);
-                } else {
-                    descriptionMap.put(descriptionObject, 1);
-                }
-
-
-                //Extract object from list called "wind"
-                JSONObject windInfoFromListObject = weatherArrayJSONObject.getJSONObject("wind");
-
-                //Wind speed addition
-                double windSpeedObject = windInfoFromListObject.getDouble("speed");
-                windSpeedSum += windSpeedObject;
-
-            }
-
-            //Final humidity average value
-            double humidityValue = humiditySum/counterTo;
-
-            //Final id extraction based on most repeated value
-            Map.Entry<String, Integer> maxIdEntry = null;
-            for (Map.Entry<String, Integer> entry1 : idMap.entrySet()) {
-                if (maxIdEntry == null || (entry1.getValue() > maxIdEntry.getValue())) {
-                    maxIdEntry = entry1;
-                }
-            }
-
-            //Final description extraction based on most repeated value
-            Map.Entry<String, Integer> maxDescEntry = null;
-            for (Map.Entry<String, Integer> entry2 : descriptionMap.entrySet()) {
-                if (maxDescEntry == null || (entry2.getValue() > maxDescEntry.getValue())) {
-                    maxDescEntry = entry2;
-                }
-            }
-
-            //Final wind speed average value
-            double windSpeedValue = windSpeedSum/counterTo;
-
-
-
-            /** Here I generate final data to create Weather object **/
-
-            //Form forecast city for an Weather future object creation
-            String forecastCity = cityName + ", " + cityCountry;
-
-            //Form forecast temperature for an Weather future object creation
-            String forecastTemperature = minTemp + "/" + maxTemp;
-
-            //Form url for an Weather future object creation
-            String url = BASE_URL + cityId;
-
-            //Round humidity for an Weather future object creation
-            int humidity = (int) Math.round(humidityValue);
-
-            //Extract id from map
-            String id = maxIdEntry.getKey();
-
-            //Extract description from map
-            String description = maxDescEntry.getKey();
-
-            double windSpeed = round(windSpeedValue, 2);
-
-            //TODO: Provide icon fetching based on id received
-
-            // Create a new {@link Weather} object with the forecastCity, forecastTemperature,
-            // and url from the JSON response.
-            Weather weather = new Weather(idDB, forecastCity, forecastTemperature, url, humidity, id, description, windSpeed);
-
-            // Assign the new {@link Weather}.
-            weatherObject = weather;
-
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the forecasts JSON results", e);
-        }
-
-        // Return the forecast
-        return weatherObject;
-    }
-
-
-}
\ No newline at end of file
+}
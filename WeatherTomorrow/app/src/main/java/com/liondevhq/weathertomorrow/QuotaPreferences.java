@@ -0,0 +1,59 @@
+package com.liondevhq.weathertomorrow;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.liondevhq.weathertomorrow.core.QuotaStore;
+import com.liondevhq.weathertomorrow.core.RateLimiter;
+
+/**
+ * Saves the OpenWeatherMap call accounting of the {@link RateLimiter} in its own
+ * shared preferences file, so the quota spent before a restart still counts after it.
+ * The file is only opened when the limiter first loads or saves, on a request thread.
+ */
+public final class QuotaPreferences implements QuotaStore {
+
+    /** Name of the shared preferences file */
+    private static final String PREFS_NAME = "owm_quota";
+
+    private static final String KEY_TOKENS = "tokens";
+    private static final String KEY_SAVED_AT = "saved_at";
+    private static final String KEY_DAY = "day";
+    private static final String KEY_CALLS = "calls";
+
+    /** Context of the app, to open the shared preferences */
+    private final Context mContext;
+
+    public QuotaPreferences(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Returns the shared preferences the state is kept in.
+     */
+    private SharedPreferences getPrefs() {
+        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public RateLimiter.State load() {
+        SharedPreferences prefs = getPrefs();
+        if (!prefs.contains(KEY_SAVED_AT)) {
+            return null;
+        }
+        return new RateLimiter.State(prefs.getFloat(KEY_TOKENS, 0),
+                prefs.getLong(KEY_SAVED_AT, 0), prefs.getLong(KEY_DAY, 0),
+                prefs.getLong(KEY_CALLS, 0));
+    }
+
+    @Override
+    public void save(RateLimiter.State state) {
+        // apply() writes to the disk in the background, the request threads don't wait for it
+        getPrefs().edit()
+                .putFloat(KEY_TOKENS, (float) state.tokens)
+                .putLong(KEY_SAVED_AT, state.savedAt)
+                .putLong(KEY_DAY, state.day)
+                .putLong(KEY_CALLS, state.calls)
+                .apply();
+    }
+}
@@ -0,0 +1,388 @@
+package com.liondevhq.weathertomorrow;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.liondevhq.weathertomorrow.core.FetchCancellation;
+import com.liondevhq.weathertomorrow.data.ForecastCache;
+import com.liondevhq.weathertomorrow.data.WeatherContract.ForecastEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges concurrent refreshes of the same cities into a single network fetch.
+ * The first caller starts the fetch, every other caller that asks for the same cities while
+ * it is in flight joins it and gets the cities done so far and every further one on its
+ * listener. A refresh that completed less than the minimum interval ago is not repeated,
+ * its result is returned instead.
+ *
+ * Fetches run on threads of the coordinator and write their forecasts to the cache when
+ * they end. A caller waits only until its deadline and then goes on with what is done.
+ * The fetch keeps going in the background, and once the stragglers are in the cache
+ * {@link ForecastEntry#CONTENT_URI} is notified, so the screen picks them up.
+ */
+public final class RefreshCoordinator {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RefreshCoordinator.class.getSimpleName();
+
+    /** Refreshes of the same cities are not repeated more often than this */
+    public static final long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /** A city whose request failed isn't requested again for this long */
+    public static final long FAILED_RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /** Single instance shared by all loaders of the process */
+    private static final RefreshCoordinator sInstance = new RefreshCoordinator();
+
+    /** Threads the fetches run on, a fetch may outlive the callers that waited for it */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /** Refreshes that are running now, keyed by their requests and rows */
+    private final Map<String, InFlightRefresh> mInFlight = new HashMap<>();
+
+    /** Last completed refresh of every key */
+    private final Map<String, CompletedRefresh> mCompleted = new HashMap<>();
+
+    /** Time of the last failed request of every city, keyed by database id */
+    private final Map<Integer, Long> mFailedAt = new HashMap<>();
+
+    private RefreshCoordinator() {
+    }
+
+    /**
+     * Returns the process-wide {@link RefreshCoordinator}.
+     */
+    public static RefreshCoordinator getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Fetch the given requests (request URL to the database ids of its rows) with {@link QueryUtils}, or join
+     * a fetch of the same requests that is already running, and write the forecasts to the
+     * cache of the given database. Return the result of the last fetch if it completed less
+     * than {@link #MIN_REFRESH_INTERVAL} ago.
+     *
+     * The listener gets every city that is done before the caller stops waiting, possibly
+     * twice if the city completes while the caller joins. Return the forecasts if the whole
+     * fetch was done before the deadline. Return null if it wasn't, if the fetch failed, if the
+     * waiting thread has been interrupted or if the caller's cancellation was canceled.
+     * A canceled caller stops waiting right away. The fetch itself is canceled only when every
+     * caller that waits for it has been canceled, and never after a caller has given up on it
+     * at its deadline, because then the stragglers are still wanted in the cache.
+     *
+     * @param cancellation cancellation of the caller, or null if it can't be canceled
+     * @param deadlineMillis longest time to wait for the fetch
+     */
+    public List<Weather> refresh(Context context, Map<String, List<Integer>> requestUrlList,
+                                 SQLiteDatabase db, QueryUtils.OnForecastLoadedListener listener,
+                                 FetchCancellation cancellation, long deadlineMillis) {
+        String key = keyOf(requestUrlList);
+        long deadline = SystemClock.elapsedRealtime() + deadlineMillis;
+
+        final InFlightRefresh inFlight;
+        synchronized (this) {
+            CompletedRefresh completed = mCompleted.get(key);
+            if (completed != null
+                    && SystemClock.elapsedRealtime() - completed.mCompletedAt < MIN_REFRESH_INTERVAL) {
+                return completed.mForecasts;
+            }
+
+            // A fetch that is being canceled can't be joined anymore, start a new one
+            InFlightRefresh running = mInFlight.get(key);
+            if (running == null || running.mTask.mCancellation.isCanceled()) {
+                running = new InFlightRefresh(key, new FetchTask(
+                        context.getApplicationContext(), requestUrlList, db));
+                mInFlight.put(key, running);
+                mExecutor.execute(running);
+            }
+            inFlight = running;
+            inFlight.mTask.mWaiters++;
+        }
+        inFlight.mTask.addListener(listener);
+
+        // A canceled caller lets go of the fetch and wakes up if it is waiting for it
+        final AtomicBoolean left = new AtomicBoolean();
+        Runnable leave = new Runnable() {
+            @Override
+            public void run() {
+                leave(inFlight, left, true);
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addOnCancelListener(leave);
+        }
+
+        try {
+            synchronized (this) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                while (!inFlight.isDone() && !left.get() && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - SystemClock.elapsedRealtime();
+                }
+                // The caller goes on without the stragglers, they still go to the cache
+                if (!inFlight.isDone() && !left.get()) {
+                    inFlight.mTask.mDetached = true;
+                }
+            }
+            if (left.get() || !inFlight.isDone()) {
+                return null;
+            }
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem refreshing the forecasts.", e.getCause());
+        } catch (InterruptedException e) {
+            // Keep the interrupted status, so the caller can still notice it
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeOnCancelListener(leave);
+            }
+            inFlight.mTask.removeListener(listener);
+            leave(inFlight, left, false);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the last request of the given city failed less than
+     * {@link #FAILED_RETRY_INTERVAL} ago.
+     *
+     * @param idDB database id of the city
+     */
+    public synchronized boolean hasFailedRecently(int idDB) {
+        Long failedAt = mFailedAt.get(idDB);
+        return failedAt != null
+                && SystemClock.elapsedRealtime() - failedAt < FAILED_RETRY_INTERVAL;
+    }
+
+    /**
+     * Returns the key of the given requests. The forecasts carry the database ids of their
+     * rows, so a refresh is only shared by callers that ask for the same URLs for the same rows.
+     */
+    private static String keyOf(Map<String, List<Integer>> requestUrlList) {
+        StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, List<Integer>> request : requestUrlList.entrySet()) {
+            List<Integer> ids = new ArrayList<>(request.getValue());
+            Collections.sort(ids);
+            key.append(request.getKey()).append(' ').append(ids).append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Stop waiting for the given refresh, once per caller. If the caller has been canceled
+     * and is the last one, the fetch is canceled too, unless a caller gave up on it at its
+     * deadline.
+     */
+    private void leave(InFlightRefresh inFlight, AtomicBoolean left, boolean canceled) {
+        if (!left.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            FetchTask task = inFlight.mTask;
+            task.mWaiters--;
+            if (canceled && task.mWaiters == 0 && !task.mDetached && !inFlight.isDone()) {
+                // Under the lock, so nobody joins the fetch while it is being canceled
+                task.mCancellation.cancel();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forget the refreshes that are too old to be reused. Must be called while holding the lock.
+     */
+    private void removeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<CompletedRefresh> iterator = mCompleted.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().mCompletedAt >= MIN_REFRESH_INTERVAL) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Fetches the cities and writes them to the cache. Every city that is done is passed on
+     * to the listeners of the callers that wait for it.
+     */
+    private final class FetchTask implements Callable<List<Weather>>,
+            QueryUtils.OnForecastLoadedListener {
+
+        /** Context of the app, to notify the cache changes */
+        private final Context mContext;
+
+        /** Requests of the fetch, request URL to the database ids of its rows */
+        private final Map<String, List<Integer>> mRequests;
+
+        /** Database of the forecast cache */
+        private final SQLiteDatabase mDb;
+
+        /** Cancellation of the fetch */
+        final FetchCancellation mCancellation = new FetchCancellation();
+
+        /** Callers that wait for the result, guarded by the coordinator */
+        int mWaiters;
+
+        /** True once a caller has given up at its deadline, guarded by the coordinator */
+        boolean mDetached;
+
+        /** Listeners of the waiting callers, guarded by this task */
+        private final List<QueryUtils.OnForecastLoadedListener> mListeners = new ArrayList<>();
+
+        /** Cities that are done so far, for the callers that join later */
+        private final List<Weather> mLoaded = new ArrayList<>();
+        private final List<Integer> mFailed = new ArrayList<>();
+
+        FetchTask(Context context, Map<String, List<Integer>> requests, SQLiteDatabase db) {
+            mContext = context;
+            mRequests = requests;
+            mDb = db;
+        }
+
+        @Override
+        public List<Weather> call() {
+            List<Weather> forecasts = QueryUtils.fetchForecastData(mRequests,
+                    QueryUtils.DEFAULT_FETCH_POOL_SIZE, this, mCancellation);
+
+            // Everything that has been fetched is kept, even if nobody waits for it anymore
+            ForecastCache.writeForecasts(mDb, forecasts, System.currentTimeMillis());
+            boolean detached;
+            synchronized (RefreshCoordinator.this) {
+                detached = mDetached;
+            }
+            if (detached) {
+                mContext.getContentResolver().notifyChange(ForecastEntry.CONTENT_URI, null);
+            }
+            return forecasts;
+        }
+
+        /**
+         * Pass the cities done so far to the given listener, and every further one.
+         */
+        void addListener(QueryUtils.OnForecastLoadedListener listener) {
+            List<Weather> loaded;
+            List<Integer> failed;
+            synchronized (this) {
+                mListeners.add(listener);
+                loaded = new ArrayList<>(mLoaded);
+                failed = new ArrayList<>(mFailed);
+            }
+            for (Weather weather : loaded) {
+                listener.onForecastLoaded(weather);
+            }
+            for (int idDB : failed) {
+                listener.onForecastFailed(idDB);
+            }
+        }
+
+        synchronized void removeListener(QueryUtils.OnForecastLoadedListener listener) {
+            mListeners.remove(listener);
+        }
+
+        @Override
+        public void onForecastLoaded(Weather weather) {
+            synchronized (RefreshCoordinator.this) {
+                mFailedAt.remove(weather.getIdDB());
+            }
+            List<QueryUtils.OnForecastLoadedListener> listeners;
+            synchronized (this) {
+                mLoaded.add(weather);
+                listeners = new ArrayList<>(mListeners);
+            }
+            for (QueryUtils.OnForecastLoadedListener listener : listeners) {
+                listener.onForecastLoaded(weather);
+            }
+        }
+
+        @Override
+        public void onForecastFailed(int idDB) {
+            synchronized (RefreshCoordinator.this) {
+                mFailedAt.put(idDB, SystemClock.elapsedRealtime());
+            }
+            List<QueryUtils.OnForecastLoadedListener> listeners;
+            synchronized (this) {
+                mFailed.add(idDB);
+                listeners = new ArrayList<>(mListeners);
+            }
+            for (QueryUtils.OnForecastLoadedListener listener : listeners) {
+                listener.onForecastFailed(idDB);
+            }
+        }
+    }
+
+    /**
+     * Fetch that is running now. When it is done, it is kept as the last completed refresh of
+     * its key and the callers waiting on the coordinator are woken up.
+     */
+    private final class InFlightRefresh extends FutureTask<List<Weather>> {
+
+        /** Key of the refresh */
+        private final String mKey;
+
+        /** Fetch of the refresh */
+        final FetchTask mTask;
+
+        InFlightRefresh(String key, FetchTask task) {
+            super(task);
+            mKey = key;
+            mTask = task;
+        }
+
+        @Override
+        protected void done() {
+            // A canceled fetch is incomplete, it must not stand in for the next refresh
+            List<Weather> forecasts = null;
+            if (!mTask.mCancellation.isCanceled()) {
+                try {
+                    forecasts = get();
+                } catch (ExecutionException | InterruptedException e) {
+                    // The waiting callers log the failure
+                }
+            }
+
+            synchronized (RefreshCoordinator.this) {
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+                if (forecasts != null) {
+                    removeExpired();
+                    mCompleted.put(mKey, new CompletedRefresh(forecasts, SystemClock.elapsedRealtime()));
+                }
+                RefreshCoordinator.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Result of a finished refresh and the time it finished at.
+     */
+    private static final class CompletedRefresh {
+
+        /** Fetched forecasts */
+        final List<Weather> mForecasts;
+
+        /** Time of completion from {@link SystemClock#elapsedRealtime()} */
+        final long mCompletedAt;
+
+        CompletedRefresh(List<Weather> forecasts, long completedAt) {
+            mForecasts = forecasts;
+            mCompletedAt = completedAt;
+        }
+    }
+}
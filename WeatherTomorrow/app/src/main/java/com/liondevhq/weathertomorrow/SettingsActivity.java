@@ -29,6 +29,9 @@ public class SettingsActivity extends AppCompatActivity{
 
             Preference tempUnit = findPreference(getString(R.string.settings_temp_unit_key));
             bindPreferenceSummaryToValue(tempUnit);
+
+            Preference cacheTtl = findPreference(getString(R.string.settings_cache_ttl_key));
+            bindPreferenceSummaryToValue(cacheTtl);
         }
 
         @Override
@@ -1,18 +1,28 @@
 package com.liondevhq.weathertomorrow;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.TextUtils;
+
 /**
  * Created by pc on 21.01.2017.
  */
-public class Weather {
+public class Weather implements Parcelable {
 
     /** Database Id of the Weather */
     private int mIdDB;
 
+    /** OpenWeatherMap id of the forecast city */
+    private int mCityId;
+
     /** City for the forecast */
     private String mCity;
 
-    /** Forecast temperature */
-    private String mTemp;
+    /** Forecast minimal temperature */
+    private double mTempMin;
+
+    /** Forecast maximal temperature */
+    private double mTempMax;
 
     /** Website URL of the Weather */
     private String mUrl;
@@ -20,8 +30,8 @@ public class Weather {
     /** Humidity of the Weather */
     private int mHumidity;
 
-    /** Id of the Weather */
-    private String mId;
+    /** OpenWeatherMap condition code of the Weather */
+    private int mConditionId;
 
     /** Description of the Weather */
     private String mDescription;
@@ -32,25 +42,77 @@ public class Weather {
     /**
      * Creates new {@link Weather} object
      * @param idDB
+     * @param cityId
      * @param city
-     * @param temperature
+     * @param tempMin
+     * @param tempMax
      * @param url
      * @param humidity
-     * @param id
+     * @param conditionId
      * @param description
      * @param windSpeed
      */
-    public Weather(int idDB, String city, String temperature, String url, int humidity, String id, String description, double windSpeed) {
+    public Weather(int idDB, int cityId, String city, double tempMin, double tempMax, String url,
+                   int humidity, int conditionId, String description, double windSpeed) {
         mIdDB = idDB;
+        mCityId = cityId;
         mCity = city;
-        mTemp = temperature;
+        mTempMin = tempMin;
+        mTempMax = tempMax;
         mUrl = url;
         mHumidity = humidity;
-        mId = id;
+        mConditionId = conditionId;
         mDescription = description;
         mWindSpeed = windSpeed;
     }
 
+    /**
+     * Creates {@link Weather} object from the {@link Parcel} written by {@link #writeToParcel}.
+     */
+    protected Weather(Parcel in) {
+        mIdDB = in.readInt();
+        mCityId = in.readInt();
+        mCity = in.readString();
+        mTempMin = in.readDouble();
+        mTempMax = in.readDouble();
+        mUrl = in.readString();
+        mHumidity = in.readInt();
+        mConditionId = in.readInt();
+        mDescription = in.readString();
+        mWindSpeed = in.readDouble();
+    }
+
+    public static final Creator<Weather> CREATOR = new Creator<Weather>() {
+        @Override
+        public Weather createFromParcel(Parcel in) {
+            return new Weather(in);
+        }
+
+        @Override
+        public Weather[] newArray(int size) {
+            return new Weather[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mIdDB);
+        dest.writeInt(mCityId);
+        dest.writeString(mCity);
+        dest.writeDouble(mTempMin);
+        dest.writeDouble(mTempMax);
+        dest.writeString(mUrl);
+        dest.writeInt(mHumidity);
+        dest.writeInt(mConditionId);
+        dest.writeString(mDescription);
+        dest.writeDouble(mWindSpeed);
+    }
+
     /**
      * Returns the database id of the current forecast.
      */
@@ -58,6 +120,13 @@ public class Weather {
         return mIdDB;
     }
 
+    /**
+     * Returns the OpenWeatherMap id of the city.
+     */
+    public int getCityId() {
+        return mCityId;
+    }
+
     /**
      * Returns the city.
      */
@@ -66,10 +135,17 @@ public class Weather {
     }
 
     /**
-     * Returns the temperature for this city.
+     * Returns the minimal temperature for this city.
      */
-    public String getTemperature() {
-        return mTemp;
+    public double getTempMin() {
+        return mTempMin;
+    }
+
+    /**
+     * Returns the maximal temperature for this city.
+     */
+    public double getTempMax() {
+        return mTempMax;
     }
 
     /**
@@ -87,10 +163,10 @@ public class Weather {
     }
 
     /**
-     * Returns the id of current forecast.
+     * Returns the OpenWeatherMap condition code of current forecast.
      */
-    public String getIdWeather() {
-        return mId;
+    public int getConditionId() {
+        return mConditionId;
     }
 
     /**
@@ -106,4 +182,43 @@ public class Weather {
     public double getWindSpeed() {
         return mWindSpeed;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Weather weather = (Weather) o;
+        return mIdDB == weather.mIdDB
+                && mCityId == weather.mCityId
+                && Double.compare(weather.mTempMin, mTempMin) == 0
+                && Double.compare(weather.mTempMax, mTempMax) == 0
+                && mHumidity == weather.mHumidity
+                && mConditionId == weather.mConditionId
+                && Double.compare(weather.mWindSpeed, mWindSpeed) == 0
+                && TextUtils.equals(mCity, weather.mCity)
+                && TextUtils.equals(mUrl, weather.mUrl)
+                && TextUtils.equals(mDescription, weather.mDescription);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mIdDB;
+        result = 31 * result + mCityId;
+        result = 31 * result + (mCity != null ? mCity.hashCode() : 0);
+        long temp = Double.doubleToLongBits(mTempMin);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(mTempMax);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (mUrl != null ? mUrl.hashCode() : 0);
+        result = 31 * result + mHumidity;
+        result = 31 * result + mConditionId;
+        result = 31 * result + (mDescription != null ? mDescription.hashCode() : 0);
+        temp = Double.doubleToLongBits(mWindSpeed);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
 }
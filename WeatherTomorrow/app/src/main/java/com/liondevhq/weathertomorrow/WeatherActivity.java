@@ -2,33 +2,44 @@ package com.liondevhq.weathertomorrow;
 
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import com.liondevhq.weathertomorrow.core.RateLimiter;
+import com.liondevhq.weathertomorrow.core.RequestScheduler;
+import com.liondevhq.weathertomorrow.core.metrics.MetricsRegistry;
+import com.liondevhq.weathertomorrow.data.CityListIO;
 import com.liondevhq.weathertomorrow.data.WeatherContract;
+import com.liondevhq.weathertomorrow.data.WeatherWriter;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class WeatherActivity extends AppCompatActivity implements LoaderCallbacks<List<Weather>>,
+public class WeatherActivity extends AppCompatActivity implements LoaderCallbacks<List<WeatherDisplay>>,
         SharedPreferences.OnSharedPreferenceChangeListener {
 
     /*
@@ -58,30 +69,23 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
     public static final int EDIT = 0;
     public static final int WEBSITE = 1;
 
+    /** Request codes of the documents picked to import and export the cities */
+    private static final int REQUEST_IMPORT_CITIES = 1;
+    private static final int REQUEST_EXPORT_CITIES_CSV = 2;
+    private static final int REQUEST_EXPORT_CITIES_JSON = 3;
+
     /** Adapter for the list of forecasts */
     private WeatherAdapter mAdapter;
 
     /** URI for the current onClicked item */
     private Uri mCurrentUri;
-    /** Position for the current onClicked item */
-    private int mCurrentPosition;
+    /** Forecast of the current onClicked item */
+    private Weather mCurrentWeather;
 
 
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        getLoaderManager().restartLoader(WEATHER_LOADER_ID, null, this);
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
-        getLoaderManager().restartLoader(WEATHER_LOADER_ID, null, this);
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -97,19 +101,33 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
             }
         });
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView weatherListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView weatherListView = (RecyclerView) findViewById(R.id.list);
+        weatherListView.setLayoutManager(new LinearLayoutManager(this));
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        weatherListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new adapter that takes an empty list of weather as input
-        mAdapter = new WeatherAdapter(this, new ArrayList<Weather>());
-
-        // Set the adapter on the {@link ListView}
+        // Create a new adapter that takes an empty list of weather as input.
+        // A click on a forecast shows the context menu to edit it or to open its website.
+        mAdapter = new WeatherAdapter(this, new ArrayList<WeatherDisplay>(),
+                new WeatherAdapter.OnWeatherClickListener() {
+                    @Override
+                    public void onWeatherClick(Weather weather, View view) {
+                        // Save the state of current Uri for the future usage.
+                        mCurrentUri = ContentUris.withAppendedId(
+                                WeatherContract.WeatherEntry.CONTENT_URI, weather.getIdDB());
+                        // Save the state of current forecast for the future usage.
+                        mCurrentWeather = weather;
+                        // Show context menu on clicked item
+                        registerForContextMenu(view);
+                        view.showContextMenu();
+                        unregisterForContextMenu(view);
+                    }
+                });
+
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         weatherListView.setAdapter(mAdapter);
-        registerForContextMenu(weatherListView);
 
         // Obtain a reference to the SharedPreferences file for this app
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
@@ -117,47 +135,14 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
         // So we know when the user has adjusted the query settings
         prefs.registerOnSharedPreferenceChangeListener(this);
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected forecast.
-        weatherListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                //TODO: provide correct id returning - DONE
-                int idDb = mAdapter.getItem(position).getIdDB();
-                // Save the state of current Uri for the future usage.
-                mCurrentUri =  ContentUris.withAppendedId(WeatherContract.WeatherEntry.CONTENT_URI, idDb);
-                // Save the state of current position for the future usage.
-                mCurrentPosition = position;
-                // Show context menu on clicked item
-                view.showContextMenu();
-            }
-        });
-
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connMgr = (ConnectivityManager)
-                getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(WEATHER_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
-
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
-        }
+        // Initialize the loader. Pass in the int ID constant defined above and pass in null for
+        // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface).
+        // The loader is started even without a network connection to show the cached forecasts.
+        loaderManager.initLoader(WEATHER_LOADER_ID, null, this);
     }
 
 
@@ -165,13 +150,10 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v,
                                     ContextMenu.ContextMenuInfo menuInfo) {
-        if (v.getId()==R.id.list) {
-            AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo)menuInfo;
-            int position = info.position;
-            //System.err.println("position: " + position);
+        if (mCurrentWeather != null) {
             menu.setHeaderTitle(R.string.weather_activity_context_menu_title);
-            menu.add(Menu.NONE, EDIT, position, R.string.weather_activity_context_edit_menu_item);
-            menu.add(Menu.NONE, WEBSITE, position, R.string.weather_activity_context_website_menu_item);
+            menu.add(Menu.NONE, EDIT, Menu.NONE, R.string.weather_activity_context_edit_menu_item);
+            menu.add(Menu.NONE, WEBSITE, Menu.NONE, R.string.weather_activity_context_website_menu_item);
         }
     }
 
@@ -199,7 +181,7 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
                 break;
             case 1:
                 // Find the current forecast that was clicked on
-                Weather currentWeather = mAdapter.getItem(mCurrentPosition);
+                Weather currentWeather = mCurrentWeather;
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri forecastUri = Uri.parse(currentWeather.getUrl());
@@ -215,70 +197,91 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
     }
 
     /**
-     * Helper method to delete all forecasts in the database.
+     * Helper method to delete all forecasts in the database, off the main thread.
+     * The loader reloads the list when the delete has been committed.
      */
     private void deleteAllForecasts() {
-        int rowsDeleted = getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        WeatherWriter.getInstance(this).startDelete(WeatherContract.WeatherEntry.CONTENT_URI,
+                new WeatherWriter.OnWriteCompleteListener() {
+                    @Override
+                    public void onWriteComplete(ContentProviderResult result) {
+                        if (result != null) {
+                            Log.v(LOG_TAG, result.count + " rows deleted from weather database");
+                        }
+                    }
+                });
     }
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
         if (key.equals(getString(R.string.settings_temp_unit_key))){
-            // Clear the ListView as a new query will be kicked off
-            mAdapter.clear();
-
-            // Hide the empty state text view as the loading indicator will be displayed
-            mEmptyStateTextView.setVisibility(View.GONE);
-
-            // Show the loading indicator while new data is being fetched
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.VISIBLE);
-
-            // Restart the loader to requery the OWM as the query settings have been updated
+            // The cached forecasts don't depend on the unit, so the list stays on the screen
+            // and the new loader just formats them again in the new unit
+            getLoaderManager().restartLoader(WEATHER_LOADER_ID, null, this);
+        } else if (key.equals(getString(R.string.settings_cache_ttl_key))) {
+            // The new loader checks the cached forecasts against the new TTL, and fetches
+            // the ones that are stale now
             getLoaderManager().restartLoader(WEATHER_LOADER_ID, null, this);
         }
     }
 
     @Override
-    public Loader<List<Weather>> onCreateLoader(int i, Bundle bundle) {
+    public Loader<List<WeatherDisplay>> onCreateLoader(int i, Bundle bundle) {
 
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         String tempUnit = sharedPrefs.getString(
                 getString(R.string.settings_temp_unit_key),
                 getString(R.string.settings_temp_unit_default));
+        String cacheTtlMinutes = sharedPrefs.getString(
+                getString(R.string.settings_cache_ttl_key),
+                getString(R.string.settings_cache_ttl_default));
 
-        return new WeatherLoader(this, tempUnit);
+        return new WeatherLoader(this, tempUnit,
+                TimeUnit.MINUTES.toMillis(Long.parseLong(cacheTtlMinutes)));
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Weather>> loader, List<Weather> weatherList) {
+    public void onLoadFinished(Loader<List<WeatherDisplay>> loader, List<WeatherDisplay> weatherList) {
         // Hide loading indicator because the data has been loaded
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Set empty state text to display "No forecasts found."
-        mEmptyStateTextView.setText(R.string.no_forecasts);
-
-        // Clear the adapter of previous forecasts data
-        mAdapter.clear();
+        // Set empty state text to display "No forecasts found.", or the connection error
+        // if there is nothing cached to show while offline
+        if (WeatherLoader.isNetworkConnected(this)) {
+            mEmptyStateTextView.setText(R.string.no_forecasts);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        }
 
-        // If there is a valid list of forecasts, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (weatherList != null && !weatherList.isEmpty()) {
-            mAdapter.addAll(weatherList);
+        // Show the new list of forecasts. Only the cities that have changed since the
+        // previous result are rebound, so the list keeps its scroll position.
+        if (weatherList != null) {
+            mAdapter.setForecasts(weatherList);
+        } else {
+            mAdapter.setForecasts(new ArrayList<WeatherDisplay>());
         }
+        updateEmptyView();
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Weather>> loader) {
+    public void onLoaderReset(Loader<List<WeatherDisplay>> loader) {
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        mAdapter.setForecasts(new ArrayList<WeatherDisplay>());
+    }
+
+    /**
+     * Show the empty state text only when there are no forecasts in the list.
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_activity, menu);
+        // The network metrics are a debugging aid only
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -295,10 +298,143 @@ public class WeatherActivity extends AppCompatActivity implements LoaderCallback
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllForecasts();
-                // Refresh data
-                getLoaderManager().restartLoader(WEATHER_LOADER_ID, null, this);
+                return true;
+            // Respond to a click on the "Import Cities" menu option
+            case R.id.action_import_cities:
+                Intent importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                importIntent.setType("*/*");
+                importIntent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+                        "text/csv", "text/comma-separated-values", "text/plain", "application/json" });
+                startActivityForResult(importIntent, REQUEST_IMPORT_CITIES);
+                return true;
+            // Respond to a click on the "Export Cities" menu options
+            case R.id.action_export_cities_csv:
+                startExport("text/csv", "cities.csv", REQUEST_EXPORT_CITIES_CSV);
+                return true;
+            case R.id.action_export_cities_json:
+                startExport("application/json", "cities.json", REQUEST_EXPORT_CITIES_JSON);
+                return true;
+            // Respond to a click on the "Network Metrics" menu option
+            case R.id.action_metrics:
+                Intent metricsIntent = new Intent(this, MetricsActivity.class);
+                startActivity(metricsIntent);
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Let the user pick the document the cities are exported to.
+     */
+    private void startExport(String mimeType, String title, int requestCode) {
+        Intent exportIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        exportIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        exportIntent.setType(mimeType);
+        exportIntent.putExtra(Intent.EXTRA_TITLE, title);
+        startActivityForResult(exportIntent, requestCode);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        Uri documentUri = data.getData();
+        switch (requestCode) {
+            case REQUEST_IMPORT_CITIES:
+                new CityListTask(this, documentUri, true, CityListIO.Format.of(
+                        getContentResolver().getType(documentUri),
+                        documentUri.getLastPathSegment())).execute();
+                break;
+            case REQUEST_EXPORT_CITIES_CSV:
+                new CityListTask(this, documentUri, false, CityListIO.Format.CSV).execute();
+                break;
+            case REQUEST_EXPORT_CITIES_JSON:
+                new CityListTask(this, documentUri, false, CityListIO.Format.JSON).execute();
+                break;
+        }
+    }
+
+    /**
+     * Imports the cities of a document or exports them to it off the main thread, and
+     * shows how many cities it has handled.
+     */
+    private static class CityListTask extends AsyncTask<Void, Void, Integer> {
+
+        /** Activity that started the task, it may be gone when the task is done */
+        private final WeakReference<WeatherActivity> mActivity;
+
+        private final ContentResolver mResolver;
+        private final Uri mDocumentUri;
+        private final boolean mImport;
+        private final CityListIO.Format mFormat;
+
+        CityListTask(WeatherActivity activity, Uri documentUri, boolean isImport,
+                     CityListIO.Format format) {
+            mActivity = new WeakReference<>(activity);
+            mResolver = activity.getContentResolver();
+            mDocumentUri = documentUri;
+            mImport = isImport;
+            mFormat = format;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            try {
+                if (mImport) {
+                    return CityListIO.importCities(mResolver,
+                            mResolver.openInputStream(mDocumentUri), mFormat);
+                }
+                return CityListIO.exportCities(mResolver,
+                        mResolver.openOutputStream(mDocumentUri), mFormat);
+            } catch (IOException | RuntimeException e) {
+                // A document the app can't open throws SecurityException or
+                // IllegalArgumentException, an unexpected JSON value IllegalStateException
+                // or NumberFormatException
+                Log.e(LOG_TAG, "Problem with the city list " + mDocumentUri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            WeatherActivity activity = mActivity.get();
+            if (activity == null || activity.isFinishing()) {
+                return;
+            }
+
+            String message;
+            if (count == null) {
+                message = activity.getString(mImport
+                        ? R.string.import_cities_failed : R.string.export_cities_failed);
+            } else {
+                message = activity.getString(mImport
+                        ? R.string.import_cities_successful : R.string.export_cities_successful, count);
+            }
+            Toast.makeText(activity, message, Toast.LENGTH_SHORT).show();
+            // The loader shows the new cities itself, it reloads when the provider notifies them
+        }
+    }
+
+    /**
+     * Add the network metrics to "adb shell dumpsys activity
+     * com.liondevhq.weathertomorrow/.WeatherActivity".
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Network metrics:");
+        MetricsRegistry.getDefault().dump(writer);
+
+        RateLimiter rateLimiter = RequestScheduler.getDefault().getRateLimiter();
+        if (rateLimiter != null) {
+            writer.print(prefix);
+            writer.println("OpenWeatherMap calls today: " + rateLimiter.getCallsToday()
+                    + " (UTC), quota " + BuildConfig.OWM_CALLS_PER_MINUTE + " a minute");
+        }
+    }
 }
@@ -1,162 +1,173 @@
 package com.liondevhq.weathertomorrow;
 
 import android.content.Context;
-import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Created by pc on 21.01.2017.
  */
-public class WeatherAdapter extends ArrayAdapter<Weather> {
+public class WeatherAdapter extends RecyclerView.Adapter<WeatherAdapter.WeatherViewHolder> {
 
-    //Separator that are used to split our min and max temperature
-    //that comes from a HTTP request
-    public static final String TEMPERATURE_SEPARATOR = "/";
+    /**
+     * Listener for clicks on the forecasts of the list.
+     */
+    public interface OnWeatherClickListener {
+
+        /**
+         * Called when the user clicks on the view of the given forecast.
+         */
+        void onWeatherClick(Weather weather, View view);
+    }
+
+    /** Context of the app */
+    private final Context mContext;
+
+    /** Rows that are shown now, this is the data source of the adapter */
+    private List<WeatherDisplay> mWeatherList;
+
+    /** Listener that gets the clicks on the forecasts */
+    private final OnWeatherClickListener mClickListener;
 
     /**
      * Constructs a new {@link WeatherAdapter}.
      *
      * @param context of the app
-     * @param weatherList is the list of weather, which is the data source of the adapter
+     * @param weatherList is the list of formatted rows, which is the data source of the adapter
+     * @param clickListener gets the clicks on the forecasts
      */
-    public WeatherAdapter(Context context, List<Weather> weatherList) {
-        super(context, 0, weatherList);
+    public WeatherAdapter(Context context, List<WeatherDisplay> weatherList,
+                          OnWeatherClickListener clickListener) {
+        mContext = context;
+        mWeatherList = weatherList;
+        mClickListener = clickListener;
+        // Forecasts are identified by their database id, so rows keep their views across updates
+        setHasStableIds(true);
     }
 
     /**
-     * Returns a list item view that displays information about the weather at the given position
-     * in the list of weather.
+     * Show the given forecasts. Only the rows that have been added, removed or changed
+     * since the previous list are rebound.
      */
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.weather_list_item, parent, false);
-        }
-
-        // Find the forecast at the given position in the list of forecasts
-        Weather currentWeather = getItem(position);
-
-        // Find the TextView with view ID city
-        TextView cityView = (TextView) listItemView.findViewById(R.id.city);
-        // Display the city of the current weather in that TextView
-        cityView.setText(currentWeather.getCity());
-
-        // Get the original temperature string from the Weather object
-        String originalTemperature = currentWeather.getTemperature();
-
-        /**Temperature that comes from an HTTP request are separated by
-        @link TEMPERATURE_SEPARATOR
-         all we need is to separate it properly and put in different
-         TextViews
-        **/
-        double minimumTempValue;
-        double maximumTempValue;
-
-        // Split the string into different parts (as an array of Strings)
-        String[] parts = originalTemperature.split(TEMPERATURE_SEPARATOR);
-        minimumTempValue = Double.parseDouble(parts[0]);
-        maximumTempValue = Double.parseDouble(parts[1]);
-
-        //Round values to int
-        int formattedMinTempValueInt = (int) Math.round(minimumTempValue);
-        int formattedMaxTempValueInt = (int) Math.round(maximumTempValue);
-
-
-        // Find the TextView with view ID min temperature
-        TextView temperatureMinView = (TextView) listItemView.findViewById(R.id.temperature_min);
-        //Format min temperature
-        String formattedMinTempValueString = formatMinTemp(formattedMinTempValueInt);
-        // Get the appropriate text color based on the current sign
-        int minTempTextColor = getTextColor(formattedMinTempValueInt);
-        // Display the temperature of the current weather in that TextView
-        temperatureMinView.setText(formattedMinTempValueString);
-        //Set the color to min temperature TextView
-        temperatureMinView.setTextColor(ContextCompat.getColor(temperatureMinView.getContext(), minTempTextColor));
-
-        // Find the TextView with view ID max temperature
-        TextView temperatureMaxView = (TextView) listItemView.findViewById(R.id.temperature_max);
-        //Format max temperature
-        String formattedMaxTempValueString = formatMaxTemp(formattedMaxTempValueInt);
-        // Get the appropriate text color based on the current sign
-        int maxTempTextColor = getTextColor(formattedMaxTempValueInt);
-        // Display the temperature of the current weather in that TextView
-        temperatureMaxView.setText(formattedMaxTempValueString);
-        //Set the color to min temperature TextView
-        temperatureMaxView.setTextColor(ContextCompat.getColor(temperatureMaxView.getContext(), maxTempTextColor));
-
-        // Find the TextView with view ID humidity
-        TextView humidityView = (TextView) listItemView.findViewById(R.id.humidity);
-        // Form humidity text for the TextView
-        String humidityFullText = this.getContext().getResources().getString(R.string.humidity_text_view) + currentWeather.getHumidity() + "%";
-        // Display the humidity of the current weather object in that TextView
-        humidityView.setText(humidityFullText);
-
-        // Find the TextView with view ID weather_description
-        TextView descriptionView = (TextView) listItemView.findViewById(R.id.weather_description);
-        // Display the description of the current weather object in that TextView
-        descriptionView.setText(currentWeather.getDescription());
-
-        // Find the TextView with view ID humidity
-        TextView windSpeedView = (TextView) listItemView.findViewById(R.id.wind_speed);
-        // Form wind speed text for the TextView
-        String windSpeedFullText = this.getContext().getResources().getString(R.string.wind_speed_text_view) + String.valueOf(currentWeather.getWindSpeed()) + this.getContext().getResources().getString(R.string.wind_speed_text_view_measure);
-        // Display the humidity of the current weather object in that TextView
-        windSpeedView.setText(windSpeedFullText);
-
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
+    public void setForecasts(List<WeatherDisplay> weatherList) {
+        final List<WeatherDisplay> oldList = mWeatherList;
+        final List<WeatherDisplay> newList = new ArrayList<>(weatherList);
+
+        // The forecasts keep the database order, so there are no moves to look for
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldList.get(oldItemPosition).getWeather().getIdDB()
+                        == newList.get(newItemPosition).getWeather().getIdDB();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldList.get(oldItemPosition).equals(newList.get(newItemPosition));
+            }
+        }, false);
+
+        mWeatherList = newList;
+        diffResult.dispatchUpdatesTo(this);
     }
 
     /**
-     * Return the right color that depends of integer sign
+     * Returns the row at the given position in the list.
      */
-    private int getTextColor(int formattedTempValueInt) {
-        int temperatureColorResourceId;
-        if (formattedTempValueInt < 0) {
-            temperatureColorResourceId = R.color.colorLowTemp;
-        } else if (formattedTempValueInt == 0) {
-            temperatureColorResourceId = R.color.darkGrey;
-        } else {
-            temperatureColorResourceId = R.color.deepOrange;
-        }
-        return temperatureColorResourceId;
+    public WeatherDisplay getItem(int position) {
+        return mWeatherList.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mWeatherList.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mWeatherList.get(position).getWeather().getIdDB();
+    }
+
+    @Override
+    public WeatherViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(mContext).inflate(
+                R.layout.weather_list_item, parent, false);
+        return new WeatherViewHolder(listItemView);
     }
 
     /**
-     * Return the formatted minimal temperature from extracted from JSON double value
+     * Displays information about the weather at the given position in the list of weather.
+     * The texts and colors have been prepared by {@link WeatherDisplay.Formatter} on the
+     * loader thread, so they are just put into the views here.
      */
-    private String formatMinTemp(int formattedMinTempValueInt) {
-        String formattedMinTempValueString;
-        if (formattedMinTempValueInt <= 0) {
-            formattedMinTempValueString = Integer.toString(formattedMinTempValueInt);
-        } else {
-            formattedMinTempValueString = "+" + Integer.toString(formattedMinTempValueInt);
-        }
-
-        return formattedMinTempValueString;
+    @Override
+    public void onBindViewHolder(WeatherViewHolder holder, int position) {
+        // Find the row at the given position in the list of forecasts
+        WeatherDisplay currentDisplay = getItem(position);
+
+        holder.cityView.setText(currentDisplay.getCityText());
+        holder.temperatureMinView.setText(currentDisplay.getTempMinText());
+        holder.temperatureMinView.setTextColor(currentDisplay.getTempMinColor());
+        holder.temperatureMaxView.setText(currentDisplay.getTempMaxText());
+        holder.temperatureMaxView.setTextColor(currentDisplay.getTempMaxColor());
+        holder.humidityView.setText(currentDisplay.getHumidityText());
+        holder.descriptionView.setText(currentDisplay.getDescriptionText());
+        holder.windSpeedView.setText(currentDisplay.getWindSpeedText());
+
+        // Only forecasts that aren't fresh say how old they are
+        String statusText = currentDisplay.getStatusText();
+        holder.statusView.setText(statusText);
+        holder.statusView.setVisibility(statusText != null ? View.VISIBLE : View.GONE);
     }
 
     /**
-     * Return the formatted minimal temperature from extracted from JSON double value
+     * Holds the views of a single forecast row, so they are looked up only once.
      */
-    private String formatMaxTemp(int formattedMaxTempValueInt) {
-        String formattedMaxTempValueString;
-        if (formattedMaxTempValueInt <= 0) {
-            formattedMaxTempValueString = Integer.toString(formattedMaxTempValueInt);
-        } else {
-            formattedMaxTempValueString = "+" + Integer.toString(formattedMaxTempValueInt);
+    class WeatherViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView cityView;
+        final TextView temperatureMinView;
+        final TextView temperatureMaxView;
+        final TextView humidityView;
+        final TextView descriptionView;
+        final TextView windSpeedView;
+        final TextView statusView;
+
+        WeatherViewHolder(View itemView) {
+            super(itemView);
+            cityView = (TextView) itemView.findViewById(R.id.city);
+            temperatureMinView = (TextView) itemView.findViewById(R.id.temperature_min);
+            temperatureMaxView = (TextView) itemView.findViewById(R.id.temperature_max);
+            humidityView = (TextView) itemView.findViewById(R.id.humidity);
+            descriptionView = (TextView) itemView.findViewById(R.id.weather_description);
+            windSpeedView = (TextView) itemView.findViewById(R.id.wind_speed);
+            statusView = (TextView) itemView.findViewById(R.id.status);
+            itemView.setOnClickListener(this);
         }
 
-        return formattedMaxTempValueString;
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mClickListener != null) {
+                mClickListener.onWeatherClick(getItem(position).getWeather(), view);
+            }
+        }
     }
 }
@@ -0,0 +1,26 @@
+package com.liondevhq.weathertomorrow;
+
+import android.app.Application;
+
+import com.liondevhq.weathertomorrow.core.RateLimiter;
+import com.liondevhq.weathertomorrow.core.RequestScheduler;
+
+/**
+ * Sets up the process-wide state before any activity or loader runs.
+ */
+public class WeatherApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Every forecast request of the process shares the quota of the API key. The quota
+        // spent before the restart is read on the first request, not on the main thread
+        RateLimiter rateLimiter = RateLimiter.forQuota(BuildConfig.OWM_CALLS_PER_MINUTE,
+                new QuotaPreferences(this));
+        RequestScheduler.setDefault(new RequestScheduler(rateLimiter,
+                RequestScheduler.DEFAULT_MAX_ATTEMPTS,
+                RequestScheduler.DEFAULT_BASE_BACKOFF_MILLIS,
+                RequestScheduler.DEFAULT_MAX_BACKOFF_MILLIS));
+    }
+}
@@ -0,0 +1,284 @@
+package com.liondevhq.weathertomorrow;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.text.format.DateUtils;
+
+/**
+ * Ready to show texts and colors of a single {@link Weather} row. It is built on the loader
+ * thread, so binding a row in {@link WeatherAdapter} is just a few field assignments.
+ */
+public final class WeatherDisplay {
+
+    /**
+     * How current the forecast of the row is.
+     */
+    public enum Status {
+        /** Fetched within the cache TTL */
+        FRESH,
+        /** Older than the cache TTL, a refresh is pending or still running */
+        STALE,
+        /** The last refresh failed, the row shows the last known forecast */
+        FAILED
+    }
+
+    /** Forecast the row shows */
+    private final Weather mWeather;
+
+    /** Formatted minimal temperature */
+    private final String mTempMinText;
+
+    /** Resolved color of the minimal temperature */
+    private final int mTempMinColor;
+
+    /** Formatted maximal temperature */
+    private final String mTempMaxText;
+
+    /** Resolved color of the maximal temperature */
+    private final int mTempMaxColor;
+
+    /** Full humidity text */
+    private final String mHumidityText;
+
+    /** Full wind speed text */
+    private final String mWindSpeedText;
+
+    /** How current the forecast is */
+    private final Status mStatus;
+
+    /** Text of the status, null if the forecast is fresh */
+    private final String mStatusText;
+
+    private WeatherDisplay(Weather weather, String tempMinText, int tempMinColor,
+                           String tempMaxText, int tempMaxColor, String humidityText,
+                           String windSpeedText, Status status, String statusText) {
+        mWeather = weather;
+        mTempMinText = tempMinText;
+        mTempMinColor = tempMinColor;
+        mTempMaxText = tempMaxText;
+        mTempMaxColor = tempMaxColor;
+        mHumidityText = humidityText;
+        mWindSpeedText = windSpeedText;
+        mStatus = status;
+        mStatusText = statusText;
+    }
+
+    /**
+     * Returns the forecast this row shows.
+     */
+    public Weather getWeather() {
+        return mWeather;
+    }
+
+    /**
+     * Returns the city text.
+     */
+    public String getCityText() {
+        return mWeather.getCity();
+    }
+
+    /**
+     * Returns the description text.
+     */
+    public String getDescriptionText() {
+        return mWeather.getDescription();
+    }
+
+    /**
+     * Returns the formatted minimal temperature.
+     */
+    public String getTempMinText() {
+        return mTempMinText;
+    }
+
+    /**
+     * Returns the color of the minimal temperature.
+     */
+    public int getTempMinColor() {
+        return mTempMinColor;
+    }
+
+    /**
+     * Returns the formatted maximal temperature.
+     */
+    public String getTempMaxText() {
+        return mTempMaxText;
+    }
+
+    /**
+     * Returns the color of the maximal temperature.
+     */
+    public int getTempMaxColor() {
+        return mTempMaxColor;
+    }
+
+    /**
+     * Returns the full humidity text.
+     */
+    public String getHumidityText() {
+        return mHumidityText;
+    }
+
+    /**
+     * Returns the full wind speed text.
+     */
+    public String getWindSpeedText() {
+        return mWindSpeedText;
+    }
+
+    /**
+     * Returns how current the forecast is.
+     */
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Returns the text of the status, null if the forecast is fresh.
+     */
+    public String getStatusText() {
+        return mStatusText;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WeatherDisplay display = (WeatherDisplay) o;
+        return mTempMinColor == display.mTempMinColor
+                && mTempMaxColor == display.mTempMaxColor
+                && mWeather.equals(display.mWeather)
+                && mTempMinText.equals(display.mTempMinText)
+                && mTempMaxText.equals(display.mTempMaxText)
+                && mHumidityText.equals(display.mHumidityText)
+                && mWindSpeedText.equals(display.mWindSpeedText)
+                && mStatus == display.mStatus
+                && (mStatusText != null ? mStatusText.equals(display.mStatusText)
+                        : display.mStatusText == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mWeather.hashCode();
+        result = 31 * result + mTempMinText.hashCode();
+        result = 31 * result + mTempMinColor;
+        result = 31 * result + mTempMaxText.hashCode();
+        result = 31 * result + mTempMaxColor;
+        result = 31 * result + mHumidityText.hashCode();
+        result = 31 * result + mWindSpeedText.hashCode();
+        result = 31 * result + mStatus.hashCode();
+        result = 31 * result + (mStatusText != null ? mStatusText.hashCode() : 0);
+        return result;
+    }
+
+    /**
+     * Builds {@link WeatherDisplay} objects. The resource strings and colors are resolved
+     * once when the formatter is created, so it should be reused for the whole list.
+     * Forecasts come in degrees Celsius and are converted to the temperature unit
+     * of the formatter.
+     */
+    public static final class Formatter {
+
+        /** True if the temperatures are shown in degrees Fahrenheit */
+        private final boolean mFahrenheit;
+        private final String mHumidityLabel;
+        private final String mWindSpeedLabel;
+        private final String mWindSpeedMeasure;
+        private final int mLowTempColor;
+        private final int mZeroTempColor;
+        private final int mHighTempColor;
+        private final String mStaleFormat;
+        private final String mFailedFormat;
+
+        /**
+         * @param context of the app
+         * @param tempUnit temperature unit value from the settings
+         */
+        public Formatter(Context context, String tempUnit) {
+            mFahrenheit = context.getString(R.string.settings_temp_unit_fahrenheit_value)
+                    .equals(tempUnit);
+            mHumidityLabel = context.getString(R.string.humidity_text_view);
+            mWindSpeedLabel = context.getString(R.string.wind_speed_text_view);
+            mWindSpeedMeasure = context.getString(R.string.wind_speed_text_view_measure);
+            mLowTempColor = ContextCompat.getColor(context, R.color.colorLowTemp);
+            mZeroTempColor = ContextCompat.getColor(context, R.color.darkGrey);
+            mHighTempColor = ContextCompat.getColor(context, R.color.deepOrange);
+            mStaleFormat = context.getString(R.string.forecast_status_stale);
+            mFailedFormat = context.getString(R.string.forecast_status_failed);
+        }
+
+        /**
+         * Returns the ready to show row of the given forecast, which has just been fetched.
+         */
+        public WeatherDisplay format(Weather weather) {
+            return format(weather, Status.FRESH, 0);
+        }
+
+        /**
+         * Returns the ready to show row of the given forecast with its status. Stale and
+         * failed rows tell how old the forecast is.
+         *
+         * @param fetchedAt time the forecast was fetched in milliseconds since epoch,
+         *                  only used if it isn't fresh
+         */
+        public WeatherDisplay format(Weather weather, Status status, long fetchedAt) {
+            //Round min and max temperature of the Weather object to int
+            int tempMin = (int) Math.round(convertTemp(weather.getTempMin()));
+            int tempMax = (int) Math.round(convertTemp(weather.getTempMax()));
+
+            return new WeatherDisplay(weather,
+                    formatTemp(tempMin), getTextColor(tempMin),
+                    formatTemp(tempMax), getTextColor(tempMax),
+                    mHumidityLabel + weather.getHumidity() + "%",
+                    mWindSpeedLabel + String.valueOf(weather.getWindSpeed()) + mWindSpeedMeasure,
+                    status, formatStatus(status, fetchedAt));
+        }
+
+        /**
+         * Return the status text, e.g. "Updated 3 hours ago", or null for a fresh forecast
+         */
+        private String formatStatus(Status status, long fetchedAt) {
+            if (status == Status.FRESH) {
+                return null;
+            }
+            CharSequence age = DateUtils.getRelativeTimeSpanString(fetchedAt,
+                    System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
+            return String.format(status == Status.FAILED ? mFailedFormat : mStaleFormat, age);
+        }
+
+        /**
+         * Convert the temperature in degrees Celsius to the unit of the formatter
+         */
+        private double convertTemp(double celsius) {
+            return mFahrenheit ? celsius * 9 / 5 + 32 : celsius;
+        }
+
+        /**
+         * Return the right color that depends of integer sign
+         */
+        private int getTextColor(int formattedTempValueInt) {
+            if (formattedTempValueInt < 0) {
+                return mLowTempColor;
+            } else if (formattedTempValueInt == 0) {
+                return mZeroTempColor;
+            } else {
+                return mHighTempColor;
+            }
+        }
+
+        /**
+         * Return the temperature with a "+" sign if it is above zero
+         */
+        private static String formatTemp(int formattedTempValueInt) {
+            if (formattedTempValueInt <= 0) {
+                return Integer.toString(formattedTempValueInt);
+            } else {
+                return "+" + Integer.toString(formattedTempValueInt);
+            }
+        }
+    }
+}
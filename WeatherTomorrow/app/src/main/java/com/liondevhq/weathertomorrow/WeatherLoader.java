@@ -4,123 +4,369 @@ import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import com.liondevhq.weathertomorrow.core.FetchCancellation;
+import com.liondevhq.weathertomorrow.data.ForecastCache;
+import com.liondevhq.weathertomorrow.data.ForecastCache.CachedForecast;
 import com.liondevhq.weathertomorrow.data.WeatherContract;
+import com.liondevhq.weathertomorrow.data.WeatherContract.ForecastEntry;
 import com.liondevhq.weathertomorrow.data.WeatherDbHelper;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by pc on 21.01.2017.
+ *
+ * Loads the forecasts in two passes. The first pass returns the cached forecasts right away,
+ * the second one is started only if some of them are older than the cache TTL and fetches
+ * just those cities from the network. While fetching, every city is delivered as soon as
+ * it has been parsed, so the list fills in progressively. The network pass waits at most
+ * {@link #REFRESH_DEADLINE_MILLIS}, then the cities that aren't done yet keep their cached
+ * forecast marked as stale, and the loader reloads when the rest of them reach the cache.
+ * The rows are formatted into {@link WeatherDisplay} objects here, off the main thread.
+ *
+ * A load streams through its stages: every row of the cursor is formatted from the cache
+ * and added to a {@link ForecastRequestPlan} as it is read, the planned requests are fetched
+ * by {@link QueryUtils} with only a few of them queued ahead of the workers, and each response
+ * is parsed on its worker and delivered as a row right away.
  */
-public class WeatherLoader extends AsyncTaskLoader<List<Weather>> {
+public class WeatherLoader extends AsyncTaskLoader<List<WeatherDisplay>> {
 
     /** Tag for log messages */
     private static final String LOG_TAG = WeatherLoader.class.getName();
 
-    /** URL for forecast data from the OpenWeatherMap dataset */
-    private static final String OWM_REQUEST_URL =
-            "http://api.openweathermap.org/data/2.5/forecast";
+    /** Longest time the network pass waits for the forecasts before it shows what it has */
+    private static final long REFRESH_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(8);
 
-    /** Query URL */
-    private List<String> mUrl;
-
-    /** Temperature unit of measure from shared preferences of {@link WeatherActivity} */
+    /** Temperature unit of measure the forecasts are shown in, from the shared preferences */
     private String mTempUnit;
 
-    /** Database with weather cities data */
-    private WeatherDbHelper mDbHelper;
-    private SQLiteDatabase mDb;
+    /** Time in milliseconds after which a cached forecast has to be fetched again */
+    private long mCacheTtl;
+
+    /** True if the cached result has been delivered and the stale cities still need a fetch */
+    private volatile boolean mStaleRefreshPending;
+
+    /** True while the loader runs the network pass for the stale cities */
+    private volatile boolean mRefreshingStale;
+
+    /** Handler of the main thread, where the partial results are delivered */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Guards {@link #mProgressDeliveryPending} */
+    private final Object mProgressLock = new Object();
+
+    /** True if a partial result has been posted and not delivered yet */
+    private boolean mProgressDeliveryPending;
+
+    /** Cancellation of the network pass that is running now, null if there is none */
+    private volatile FetchCancellation mCancellation;
+
+    /**
+     * Reloads the forecasts when the cities change, or a refresh that was given up on writes
+     * to the cache
+     */
+    private ForceLoadContentObserver mObserver;
 
     /**
      * Constructs a new {@link WeatherLoader}.
      *
      * @param context of the activity
      * @param tmpUnit to load data from
+     * @param cacheTtl time in milliseconds a cached forecast stays fresh
      */
-    public WeatherLoader(Context context, String tmpUnit) {
+    public WeatherLoader(Context context, String tmpUnit, long cacheTtl) {
         super(context);
         mTempUnit = tmpUnit;
+        mCacheTtl = cacheTtl;
+    }
+
+    /**
+     * Returns true if there is a network connection to fetch the forecasts with.
+     */
+    static boolean isNetworkConnected(Context context) {
+        // Get a reference to the ConnectivityManager to check state of network connectivity
+        ConnectivityManager connMgr = (ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        // Get details on the currently active default data network
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
     }
 
     @Override
     protected void onStartLoading() {
+        if (mObserver == null) {
+            mObserver = new ForceLoadContentObserver();
+            getContext().getContentResolver().registerContentObserver(
+                    ForecastEntry.CONTENT_URI, false, mObserver);
+            // Writes of the provider are notified once they are committed, so the reload
+            // sees them even if they are applied after the loader has started
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+        }
+        mStaleRefreshPending = false;
+        mRefreshingStale = false;
         forceLoad();
     }
 
+    @Override
+    protected void onStopLoading() {
+        // Nobody is going to see the result, stop the downloads of the running pass
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserver != null) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserver = null;
+        }
+    }
+
+    /**
+     * Called on the main thread when the loader is restarted, stopped or reset while
+     * {@link #loadInBackground()} runs. Drops the queued requests and disconnects the
+     * running ones, so an outdated refresh stops using the network right away.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        FetchCancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<WeatherDisplay> data) {
+        super.deliverResult(data);
+
+        // The cached forecasts are on the screen now, fetch the stale ones in the background
+        if (mStaleRefreshPending && isStarted()) {
+            mStaleRefreshPending = false;
+            mRefreshingStale = true;
+            forceLoad();
+        }
+    }
+
     /**
      * This is on a background thread.
      */
     @Override
-    public List<Weather> loadInBackground() {
+    public List<WeatherDisplay> loadInBackground() {
+        boolean refreshingStale = mRefreshingStale;
+        mRefreshingStale = false;
+
+        // Database with the cities and their cached forecasts, shared with the provider
+        SQLiteDatabase db = WeatherDbHelper.getInstance(getContext()).getWritableDatabase();
+
+        // Last known forecasts of every city
+        final Map<Integer, CachedForecast> cachedForecasts = ForecastCache.readForecasts(db);
+        long now = System.currentTimeMillis();
 
-        // List for storing DB ids
-        List<Integer> idDbList = new LinkedList<>();
-        // List for storing built URIs
-        List<String> uriList = new LinkedList<>();
-        // List for storing forecast cities
-        List<String> cities = new LinkedList<>();
+        // Every row is formatted once, when its forecast arrives
+        final WeatherDisplay.Formatter formatter = new WeatherDisplay.Formatter(getContext(), mTempUnit);
+
+        // Rows in database order, cached ones are filled in now, the missing ones later
+        final List<WeatherDisplay> forecasts = new ArrayList<>();
+        // Positions of the cities in the forecasts list, keyed by database id
+        final Map<Integer, Integer> positions = new HashMap<>();
+        // Requests of the cities that have to be fetched
+        ForecastRequestPlan plan = new ForecastRequestPlan();
 
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 WeatherContract.WeatherEntry._ID,
                 WeatherContract.WeatherEntry.COLUMN_WEATHER_CITY,
-                WeatherContract.WeatherEntry.COLUMN_WEATHER_COUNTRY };
-
-        //Cursor for getting data from DB
-        mDbHelper = new WeatherDbHelper(this.getContext());
-        mDb = mDbHelper.getReadableDatabase();
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_COUNTRY,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_OWM_ID };
 
-        Cursor forecastCitiesDataCursor = mDb.query(true, WeatherContract.WeatherEntry.TABLE_NAME, projection,
+        // Every row is shown, rows of the same city share their request in the plan
+        Cursor forecastCitiesDataCursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, projection,
                 null, null, null,
-                null, null, null);
+                null, null);
+
+        // A city that failed a moment ago isn't requested again, it shows its cached forecast
+        RefreshCoordinator coordinator = RefreshCoordinator.getInstance();
+        boolean anyCached = false;
+        try {
+            int idDbIndex = forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            int cityIndex = forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_CITY);
+            int countryIndex = forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_COUNTRY);
+            int owmIdIndex = forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_OWM_ID);
+
+            // Every row is formatted and planned as it is read, nothing else is kept of it
+            while (forecastCitiesDataCursor.moveToNext()) {
+                int idDB = forecastCitiesDataCursor.getInt(idDbIndex);
+                String city = forecastCitiesDataCursor.getString(cityIndex) + ","
+                        + forecastCitiesDataCursor.getString(countryIndex);
+                Integer owmId = forecastCitiesDataCursor.isNull(owmIdIndex) ? null : forecastCitiesDataCursor.getInt(owmIdIndex);
 
-        if (forecastCitiesDataCursor.moveToFirst()){
-            do{
-                int idDB = forecastCitiesDataCursor.getInt(forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry._ID));
-                String city = forecastCitiesDataCursor.getString(forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_CITY));
-                String country = forecastCitiesDataCursor.getString(forecastCitiesDataCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_COUNTRY));
+                CachedForecast cachedForecast = cachedForecasts.get(idDB);
+                boolean stale = cachedForecast == null || cachedForecast.isStale(now, mCacheTtl);
+                boolean failed = stale && coordinator.hasFailedRecently(idDB);
+                positions.put(idDB, forecasts.size());
+                if (cachedForecast != null) {
+                    WeatherDisplay.Status status = !stale ? WeatherDisplay.Status.FRESH
+                            : failed ? WeatherDisplay.Status.FAILED : WeatherDisplay.Status.STALE;
+                    forecasts.add(formatter.format(cachedForecast.getWeather(), status,
+                            cachedForecast.getFetchedAt()));
+                    anyCached = true;
+                } else {
+                    forecasts.add(null);
+                }
+                plan.addRow(idDB, city, owmId, stale && !failed);
+            }
+        } finally {
+            forecastCitiesDataCursor.close();
+        }
+
+        // Everything is fresh, or there is no way to refresh it: show what the cache has
+        if (plan.isEmpty() || !isNetworkConnected(getContext())) {
+            return removeMissing(forecasts);
+        }
 
-                String full = city + "," + country;
+        // Show the cached forecasts first and refresh the stale ones in a second pass.
+        // With an empty cache there is nothing to show, so fetch right away.
+        if (!refreshingStale && anyCached) {
+            mStaleRefreshPending = true;
+            return removeMissing(forecasts);
+        }
 
-                cities.add(full);
-                idDbList.add(idDB);
-            }while(forecastCitiesDataCursor.moveToNext());
+        // The load may have been canceled before there was anything to cancel
+        final FetchCancellation cancellation = new FetchCancellation();
+        mCancellation = cancellation;
+        if (isLoadInBackgroundCanceled()) {
+            cancellation.cancel();
         }
-        forecastCitiesDataCursor.close();
 
-        //For each city in the list generate URI and put it in the URIs list
-        for (String city : cities){
-            Uri baseUri = Uri.parse(OWM_REQUEST_URL);
-            Uri.Builder uriBuilder = baseUri.buildUpon();
+        // Perform the network request, parse the response, and extract a list of forecasts.
+        // A refresh of the same cities that is already running is joined instead of repeated.
+        // Every city is put on the screen as soon as it has been parsed, and the forecasts
+        // go to the cache even if the fetch outlives the deadline.
+        List<Weather> fetchedForecasts;
+        try {
+            fetchedForecasts = coordinator.refresh(getContext(), plan.getRequests(), db,
+                    new QueryUtils.OnForecastLoadedListener() {
+                        @Override
+                        public void onForecastLoaded(Weather weather) {
+                            showForecast(forecasts, positions.get(weather.getIdDB()),
+                                    formatter.format(weather), cancellation);
+                        }
 
-            uriBuilder.appendQueryParameter("q", city);
-            uriBuilder.appendQueryParameter("cnt", "16");
-            uriBuilder.appendQueryParameter("units", mTempUnit);
-            uriBuilder.appendQueryParameter("appid", "031d20c5934f7a1edd29b1bcfe6c4874");
+                        @Override
+                        public void onForecastFailed(int idDB) {
+                            // Keep the last known forecast and tell that it couldn't be updated
+                            CachedForecast cachedForecast = cachedForecasts.get(idDB);
+                            if (cachedForecast != null) {
+                                showForecast(forecasts, positions.get(idDB),
+                                        formatter.format(cachedForecast.getWeather(),
+                                                WeatherDisplay.Status.FAILED,
+                                                cachedForecast.getFetchedAt()),
+                                        cancellation);
+                            }
+                        }
+                    }, cancellation, REFRESH_DEADLINE_MILLIS);
+        } finally {
+            mCancellation = null;
+        }
+        // Past the deadline the cities that aren't done yet stay stale until the reload
+        if (fetchedForecasts == null) {
+            return snapshot(forecasts);
+        }
 
-            uriList.add(uriBuilder.toString());
+        // A city that failed to load keeps its last known forecast
+        for (Weather fetchedForecast : fetchedForecasts) {
+            if (fetchedForecast == null) {
+                continue;
+            }
+            Integer position = positions.get(fetchedForecast.getIdDB());
+            if (position != null) {
+                WeatherDisplay display = formatter.format(fetchedForecast);
+                synchronized (forecasts) {
+                    forecasts.set(position, display);
+                }
+            }
         }
+        return snapshot(forecasts);
+    }
 
-        if (uriList == null) {
-            return null;
+    /**
+     * Put the given row at its position and post the forecasts to the main thread,
+     * unless the load has been canceled. A row without a position isn't one of this
+     * load's rows and is skipped.
+     */
+    private void showForecast(List<WeatherDisplay> forecasts, Integer position,
+                              WeatherDisplay display, FetchCancellation cancellation) {
+        if (position == null) {
+            Log.w(LOG_TAG, "Skipping a forecast of a row that isn't loaded");
+            return;
+        }
+        synchronized (forecasts) {
+            forecasts.set(position, display);
+        }
+        if (!cancellation.isCanceled()) {
+            scheduleProgressDelivery(forecasts);
         }
+    }
 
-        // Map for storing final forecast data
-        Map<String,Integer> forecastDataMap = new LinkedHashMap<>();
+    /**
+     * Post the forecasts loaded so far to the main thread. Several cities that complete
+     * before the main thread gets to it are delivered together.
+     */
+    private void scheduleProgressDelivery(final List<WeatherDisplay> forecasts) {
+        synchronized (mProgressLock) {
+            if (mProgressDeliveryPending) {
+                return;
+            }
+            mProgressDeliveryPending = true;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mProgressLock) {
+                    mProgressDeliveryPending = false;
+                }
+                if (isStarted()) {
+                    // Bypass deliverResult(), a partial result must not start the stale pass
+                    WeatherLoader.super.deliverResult(snapshot(forecasts));
+                }
+            }
+        });
+    }
 
-        // Insert values to the map
-        for (int i = 0; i < uriList.size(); i++) {
-            forecastDataMap.put(uriList.get(i), idDbList.get(i));
+    /**
+     * Return the forecasts available right now, in database order.
+     */
+    private static List<WeatherDisplay> snapshot(List<WeatherDisplay> forecasts) {
+        synchronized (forecasts) {
+            return removeMissing(forecasts);
         }
+    }
 
-        // Perform the network request, parse the response, and extract a list of forecasts.
-        List<Weather> forecasts = QueryUtils.fetchForecastData(forecastDataMap);
-        return forecasts;
+    /**
+     * Drop the cities that have neither a cached nor a fetched forecast.
+     */
+    private static List<WeatherDisplay> removeMissing(List<WeatherDisplay> forecasts) {
+        List<WeatherDisplay> available = new ArrayList<>(forecasts.size());
+        for (WeatherDisplay display : forecasts) {
+            if (display != null) {
+                available.add(display);
+            }
+        }
+        return available;
     }
 
 }
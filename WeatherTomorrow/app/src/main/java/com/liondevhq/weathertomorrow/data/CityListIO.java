@@ -0,0 +1,348 @@
+package com.liondevhq.weathertomorrow.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports and exports the list of cities as CSV or JSON, one city at a time, so a device
+ * can be provisioned with thousands of cities without holding the whole file in memory.
+ * Imported cities are inserted with {@link WeatherProvider#bulkInsert} in batches of
+ * {@link #BATCH_SIZE}, and cities that are in the list already are skipped.
+ *
+ * CSV has a header line and the columns city,country,owm_id. JSON is an array of objects
+ * with the keys city, country and owm_id. The OpenWeatherMap id can be left out or empty.
+ */
+public final class CityListIO {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CityListIO.class.getSimpleName();
+
+    /** Cities inserted in one transaction, the list is reloaded once for each batch */
+    public static final int BATCH_SIZE = 500;
+
+    /** Length of a country code, the same as the editor accepts */
+    private static final int COUNTRY_CODE_LENGTH = 2;
+
+    /** Charset of the files */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Column names of the CSV header and keys of the JSON objects */
+    private static final String KEY_CITY = "city";
+    private static final String KEY_COUNTRY = "country";
+    private static final String KEY_OWM_ID = "owm_id";
+
+    /**
+     * Format of a city list file.
+     */
+    public enum Format {
+        CSV,
+        JSON;
+
+        /**
+         * Returns the format of a file with the given MIME type or name, both may be null.
+         * Anything that isn't JSON is read as CSV.
+         */
+        public static Format of(String mimeType, String name) {
+            if ("application/json".equals(mimeType)
+                    || (name != null && name.toLowerCase(Locale.US).endsWith(".json"))) {
+                return JSON;
+            }
+            return CSV;
+        }
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link CityListIO} object.
+     * This class is only meant to hold static methods.
+     */
+    private CityListIO() {
+    }
+
+    /**
+     * Read the cities of the given stream and add the new ones to the weather table.
+     * Rows without a city or with an illegal country code are skipped. The stream is closed.
+     * Return the number of cities added.
+     */
+    public static int importCities(ContentResolver resolver, InputStream inputStream, Format format)
+            throws IOException {
+        CityBatch batch = new CityBatch(resolver);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+        try {
+            if (format == Format.JSON) {
+                readJson(reader, batch);
+            } else {
+                readCsv(reader, batch);
+            }
+        } finally {
+            reader.close();
+        }
+        batch.flush();
+        return batch.mRowsInserted;
+    }
+
+    /**
+     * Write every city of the weather table to the given stream, in the order they were added.
+     * The stream is closed. Return the number of cities written.
+     *
+     * @throws IOException if the stream can't be written or the cities can't be queried
+     */
+    public static int exportCities(ContentResolver resolver, OutputStream outputStream, Format format)
+            throws IOException {
+        String[] projection = {
+                WeatherEntry.COLUMN_WEATHER_CITY,
+                WeatherEntry.COLUMN_WEATHER_COUNTRY,
+                WeatherEntry.COLUMN_WEATHER_OWM_ID };
+        Cursor cursor = resolver.query(WeatherEntry.CONTENT_URI, projection, null, null,
+                WeatherEntry._ID);
+        if (cursor == null) {
+            outputStream.close();
+            throw new IOException("Problem querying the cities to export");
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+        try {
+            if (format == Format.JSON) {
+                writeJson(cursor, writer);
+            } else {
+                writeCsv(cursor, writer);
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+            writer.close();
+        }
+    }
+
+    private static void readCsv(BufferedReader reader, CityBatch batch) throws IOException {
+        String line = readCsvRecord(reader);
+        // The header is optional, the first line is a city if it isn't the header
+        if (line != null && !line.trim().toLowerCase(Locale.US).startsWith(KEY_CITY + ",")) {
+            addCsvLine(line, batch);
+        }
+        while ((line = readCsvRecord(reader)) != null) {
+            addCsvLine(line, batch);
+        }
+    }
+
+    /**
+     * Read the next CSV record, which spans several lines if a quoted field has line breaks
+     * in it. The line breaks are read as \n. Returns null at the end of the stream.
+     */
+    static String readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        StringBuilder record = new StringBuilder(line);
+        // A quote inside a quoted field is doubled, so an odd count leaves a field open
+        boolean quoted = countQuotes(line) % 2 != 0;
+        while (quoted && (line = reader.readLine()) != null) {
+            record.append('\n').append(line);
+            quoted = (countQuotes(line) % 2 != 0) != quoted;
+        }
+        // A field that is never closed runs to the end of the stream
+        return record.toString();
+    }
+
+    private static int countQuotes(String line) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void addCsvLine(String line, CityBatch batch) {
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        List<String> fields = splitCsvLine(line);
+        batch.add(fields.get(0), fields.size() > 1 ? fields.get(1) : null,
+                fields.size() > 2 ? fields.get(2) : null);
+    }
+
+    /**
+     * Split a CSV record into its fields. Fields can be quoted with ", and "" in a quoted field
+     * is a single quote. A quoted field can have commas and line breaks in it.
+     */
+    static List<String> splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void readJson(Reader reader, CityBatch batch) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            String city = null;
+            String country = null;
+            String owmId = null;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String name = jsonReader.nextName();
+                if (jsonReader.peek() == JsonToken.NULL) {
+                    jsonReader.nextNull();
+                } else if (KEY_CITY.equals(name)) {
+                    city = jsonReader.nextString();
+                } else if (KEY_COUNTRY.equals(name)) {
+                    country = jsonReader.nextString();
+                } else if (KEY_OWM_ID.equals(name)) {
+                    // Numbers are read as strings too, so both 2643743 and "2643743" work
+                    owmId = jsonReader.nextString();
+                } else {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            batch.add(city, country, owmId);
+        }
+        jsonReader.endArray();
+    }
+
+    private static void writeCsv(Cursor cursor, Writer writer) throws IOException {
+        writer.write(KEY_CITY + "," + KEY_COUNTRY + "," + KEY_OWM_ID + "\n");
+        while (cursor.moveToNext()) {
+            writer.write(quoteCsv(cursor.getString(0)));
+            writer.write(',');
+            writer.write(quoteCsv(cursor.getString(1)));
+            writer.write(',');
+            if (!cursor.isNull(2)) {
+                writer.write(String.valueOf(cursor.getLong(2)));
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Quote the given field if it has a comma, a quote or a line break in it.
+     */
+    static String quoteCsv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0
+                && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeJson(Cursor cursor, Writer writer) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setIndent("  ");
+        jsonWriter.beginArray();
+        while (cursor.moveToNext()) {
+            jsonWriter.beginObject();
+            jsonWriter.name(KEY_CITY).value(cursor.getString(0));
+            jsonWriter.name(KEY_COUNTRY).value(cursor.getString(1));
+            if (!cursor.isNull(2)) {
+                jsonWriter.name(KEY_OWM_ID).value(cursor.getLong(2));
+            }
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    /**
+     * Collects the imported cities and inserts them every {@link #BATCH_SIZE} cities.
+     */
+    private static final class CityBatch {
+
+        /** Resolver the cities are inserted with */
+        private final ContentResolver mResolver;
+
+        /** Cities that haven't been inserted yet */
+        private final List<ContentValues> mValues = new ArrayList<>(BATCH_SIZE);
+
+        /** Number of cities added so far */
+        int mRowsInserted;
+
+        CityBatch(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        /**
+         * Add a city the way the editor saves it, trimmed and with a lower case country code,
+         * or skip it if it isn't valid.
+         */
+        void add(String city, String country, String owmId) {
+            city = city != null ? city.trim() : "";
+            country = country != null ? country.trim().toLowerCase(Locale.US) : "";
+            if (city.isEmpty() || country.length() != COUNTRY_CODE_LENGTH) {
+                Log.w(LOG_TAG, "Skipping the city \"" + city + "\" of \"" + country + "\"");
+                return;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_WEATHER_CITY, city);
+            values.put(WeatherEntry.COLUMN_WEATHER_COUNTRY, country);
+            if (owmId != null && !owmId.trim().isEmpty()) {
+                try {
+                    values.put(WeatherEntry.COLUMN_WEATHER_OWM_ID, Long.parseLong(owmId.trim()));
+                } catch (NumberFormatException e) {
+                    // The city is still found by its name
+                    Log.w(LOG_TAG, "Ignoring the OpenWeatherMap id \"" + owmId + "\" of " + city);
+                }
+            }
+            mValues.add(values);
+            if (mValues.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Insert the collected cities.
+         */
+        void flush() {
+            if (mValues.isEmpty()) {
+                return;
+            }
+            mRowsInserted += mResolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                    mValues.toArray(new ContentValues[mValues.size()]));
+            mValues.clear();
+        }
+    }
+}
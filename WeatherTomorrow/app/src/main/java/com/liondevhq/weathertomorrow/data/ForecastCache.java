@@ -0,0 +1,172 @@
+package com.liondevhq.weathertomorrow.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.liondevhq.weathertomorrow.Weather;
+import com.liondevhq.weathertomorrow.data.WeatherContract.ForecastEntry;
+import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods to read and write the last known forecasts of the forecast cache table.
+ */
+public final class ForecastCache {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ForecastCache} object.
+     */
+    private ForecastCache() {
+    }
+
+    /**
+     * A cached {@link Weather} together with the time it was fetched.
+     */
+    public static final class CachedForecast {
+
+        /** Cached forecast */
+        private final Weather mWeather;
+
+        /** Time of the fetch in milliseconds since epoch */
+        private final long mFetchedAt;
+
+        public CachedForecast(Weather weather, long fetchedAt) {
+            mWeather = weather;
+            mFetchedAt = fetchedAt;
+        }
+
+        /**
+         * Returns the cached forecast.
+         */
+        public Weather getWeather() {
+            return mWeather;
+        }
+
+        /**
+         * Returns the time the forecast was fetched.
+         */
+        public long getFetchedAt() {
+            return mFetchedAt;
+        }
+
+        /**
+         * Returns true if the forecast is older than the given time to live.
+         */
+        public boolean isStale(long now, long ttl) {
+            return now - mFetchedAt >= ttl;
+        }
+    }
+
+    /**
+     * Read every cached forecast, keyed by the database id of its city.
+     */
+    public static Map<Integer, CachedForecast> readForecasts(SQLiteDatabase db) {
+        Map<Integer, CachedForecast> forecasts = new HashMap<>();
+
+        // The OpenWeatherMap city id lives in the weather table, so join it to every forecast
+        String[] projection = {
+                "f." + ForecastEntry.COLUMN_FORECAST_WEATHER_ID,
+                "w." + WeatherEntry.COLUMN_WEATHER_OWM_ID,
+                "f." + ForecastEntry.COLUMN_FORECAST_CITY,
+                "f." + ForecastEntry.COLUMN_FORECAST_TEMP_MIN,
+                "f." + ForecastEntry.COLUMN_FORECAST_TEMP_MAX,
+                "f." + ForecastEntry.COLUMN_FORECAST_URL,
+                "f." + ForecastEntry.COLUMN_FORECAST_HUMIDITY,
+                "f." + ForecastEntry.COLUMN_FORECAST_CONDITION_ID,
+                "f." + ForecastEntry.COLUMN_FORECAST_DESCRIPTION,
+                "f." + ForecastEntry.COLUMN_FORECAST_WIND_SPEED,
+                "f." + ForecastEntry.COLUMN_FORECAST_FETCHED_AT };
+        String query = "SELECT " + TextUtils.join(", ", projection)
+                + " FROM " + ForecastEntry.TABLE_NAME + " f JOIN " + WeatherEntry.TABLE_NAME + " w"
+                + " ON f." + ForecastEntry.COLUMN_FORECAST_WEATHER_ID + " = w." + WeatherEntry._ID;
+
+        Cursor cursor = db.rawQuery(query, null);
+        try {
+            // Qualified columns have no reliable names in the cursor, so use projection positions
+            int idDbIndex = 0;
+            int cityIdIndex = 1;
+            int cityIndex = 2;
+            int tempMinIndex = 3;
+            int tempMaxIndex = 4;
+            int urlIndex = 5;
+            int humidityIndex = 6;
+            int conditionIdIndex = 7;
+            int descriptionIndex = 8;
+            int windSpeedIndex = 9;
+            int fetchedAtIndex = 10;
+
+            while (cursor.moveToNext()) {
+                int idDB = cursor.getInt(idDbIndex);
+                Weather weather = new Weather(idDB,
+                        cursor.getInt(cityIdIndex),
+                        cursor.getString(cityIndex),
+                        cursor.getDouble(tempMinIndex),
+                        cursor.getDouble(tempMaxIndex),
+                        cursor.getString(urlIndex),
+                        cursor.getInt(humidityIndex),
+                        cursor.getInt(conditionIdIndex),
+                        cursor.getString(descriptionIndex),
+                        cursor.getDouble(windSpeedIndex));
+                forecasts.put(idDB, new CachedForecast(weather, cursor.getLong(fetchedAtIndex)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return forecasts;
+    }
+
+    /**
+     * Store the given forecasts in one transaction, replacing the previous forecast of each city,
+     * and remember the OpenWeatherMap id of every city so it can be requested by id next time.
+     * Null entries (cities that failed to load) are skipped.
+     */
+    public static void writeForecasts(SQLiteDatabase db, List<Weather> forecasts, long fetchedAt) {
+        db.beginTransactionNonExclusive();
+        try {
+            for (Weather weather : forecasts) {
+                if (weather == null) {
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(ForecastEntry.COLUMN_FORECAST_WEATHER_ID, weather.getIdDB());
+                values.put(ForecastEntry.COLUMN_FORECAST_CITY, weather.getCity());
+                values.put(ForecastEntry.COLUMN_FORECAST_TEMP_MIN, weather.getTempMin());
+                values.put(ForecastEntry.COLUMN_FORECAST_TEMP_MAX, weather.getTempMax());
+                values.put(ForecastEntry.COLUMN_FORECAST_URL, weather.getUrl());
+                values.put(ForecastEntry.COLUMN_FORECAST_HUMIDITY, weather.getHumidity());
+                values.put(ForecastEntry.COLUMN_FORECAST_CONDITION_ID, weather.getConditionId());
+                values.put(ForecastEntry.COLUMN_FORECAST_DESCRIPTION, weather.getDescription());
+                values.put(ForecastEntry.COLUMN_FORECAST_WIND_SPEED, weather.getWindSpeed());
+                values.put(ForecastEntry.COLUMN_FORECAST_FETCHED_AT, fetchedAt);
+                db.insertWithOnConflict(ForecastEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+
+                ContentValues cityIdValues = new ContentValues();
+                cityIdValues.put(WeatherEntry.COLUMN_WEATHER_OWM_ID, weather.getCityId());
+                db.update(WeatherEntry.TABLE_NAME, cityIdValues, WeatherEntry._ID + "=?",
+                        new String[] { String.valueOf(weather.getIdDB()) });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove the cached forecasts of the cities matching the given selection on the weather table.
+     */
+    public static int invalidateForecasts(SQLiteDatabase db, String weatherSelection,
+                                          String[] selectionArgs) {
+        String citiesQuery = "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME;
+        if (weatherSelection != null && weatherSelection.length() > 0) {
+            citiesQuery += " WHERE " + weatherSelection;
+        }
+        return db.delete(ForecastEntry.TABLE_NAME,
+                ForecastEntry.COLUMN_FORECAST_WEATHER_ID + " IN (" + citiesQuery + ")", selectionArgs);
+    }
+}
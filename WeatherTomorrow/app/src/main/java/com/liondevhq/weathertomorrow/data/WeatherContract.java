@@ -13,6 +13,7 @@ public class WeatherContract {
     public static final String CONTENT_AUTHORITY = "com.liondevhq.weathertomorrow";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_WEATHER = "weather";
+    public static final String PATH_FORECAST = "forecast";
 
     public static final class WeatherEntry implements BaseColumns {
 
@@ -35,6 +36,54 @@ public class WeatherContract {
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_WEATHER_CITY = "city";
         public static final String COLUMN_WEATHER_COUNTRY = "country";
+        /** OpenWeatherMap id of the city, null until the city has been fetched once */
+        public static final String COLUMN_WEATHER_OWM_ID = "owm_id";
+
+        /** Unique index on city and country, ignoring case */
+        public static final String INDEX_CITY_COUNTRY = "weather_city_country";
+
+        /** Selection of a city by city and country, ignoring case like the unique index */
+        public static final String CITY_SELECTION = COLUMN_WEATHER_CITY + "=? COLLATE NOCASE AND "
+                + COLUMN_WEATHER_COUNTRY + "=? COLLATE NOCASE";
+
+        /**
+         * Query parameter of the URI an insert returns, true if the city was in the database
+         * already and nothing was inserted.
+         */
+        public static final String PARAM_EXISTING = "existing";
+
+    }
+
+    /**
+     * Last parsed forecast of every city from {@link WeatherEntry}, so the list can be shown
+     * without waiting for the network and refreshed only when it gets older than the cache TTL.
+     * Forecasts are always stored in metric units (degrees Celsius, meters per second),
+     * the temperature unit of the settings is applied only when they are shown.
+     */
+    public static final class ForecastEntry implements BaseColumns {
+
+        /**
+         * URI that is notified when forecasts are written after the screen has been shown,
+         * e.g. by the requests that finished after the refresh deadline. It is only used
+         * for change notifications, the provider doesn't serve it.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_FORECAST);
+
+        public static final String TABLE_NAME = "forecast";
+
+        public static final String _ID = BaseColumns._ID;
+        /** {@link WeatherEntry#_ID} of the city this forecast belongs to */
+        public static final String COLUMN_FORECAST_WEATHER_ID = "weather_id";
+        public static final String COLUMN_FORECAST_CITY = "city";
+        public static final String COLUMN_FORECAST_TEMP_MIN = "temp_min";
+        public static final String COLUMN_FORECAST_TEMP_MAX = "temp_max";
+        public static final String COLUMN_FORECAST_URL = "url";
+        public static final String COLUMN_FORECAST_HUMIDITY = "humidity";
+        public static final String COLUMN_FORECAST_CONDITION_ID = "condition_id";
+        public static final String COLUMN_FORECAST_DESCRIPTION = "description";
+        public static final String COLUMN_FORECAST_WIND_SPEED = "wind_speed";
+        /** Time of the successful fetch in milliseconds since epoch */
+        public static final String COLUMN_FORECAST_FETCHED_AT = "fetched_at";
 
     }
 }
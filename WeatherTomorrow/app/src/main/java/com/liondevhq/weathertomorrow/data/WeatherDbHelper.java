@@ -3,36 +3,119 @@ package com.liondevhq.weathertomorrow.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import com.liondevhq.weathertomorrow.data.WeatherContract.ForecastEntry;
 import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
 
 /**
  * Created by pc on 31.01.2017.
+ *
+ * There is a single helper per process, see {@link #getInstance(Context)}, so the loader, the
+ * provider and the background refreshes share one connection pool. The database uses
+ * write-ahead logging, so the writes of a refresh don't block the reads of the screen.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "weather.db";
 
-    private static final int DATABASE_VERSION = 1;
+    /** Helper shared by the whole process, created on first use */
+    private static WeatherDbHelper sInstance;
 
-    public WeatherDbHelper(Context context) {
+    /**
+     * Version 1 - weather table
+     * Version 2 - forecast cache table
+     * Version 3 - OpenWeatherMap city id in the weather table
+     * Version 4 - numeric temperatures and condition code in the forecast cache table
+     * Version 5 - forecast cache stored in metric units only, without the unit column
+     * Version 6 - case-insensitive unique index on city and country, duplicate cities merged
+     */
+    private static final int DATABASE_VERSION = 6;
+
+    private WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Returns the helper of the process. It is never closed, the database stays open for as
+     * long as the process lives.
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            // The application context, so the helper doesn't keep an activity alive
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Needed so cached forecasts are removed together with their city
+        db.setForeignKeyConstraintsEnabled(true);
+    }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + "("
                 + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + WeatherEntry.COLUMN_WEATHER_CITY + " TEXT NOT NULL, "
-                + WeatherEntry.COLUMN_WEATHER_COUNTRY + " TEXT NOT NULL);";
+                + WeatherEntry.COLUMN_WEATHER_COUNTRY + " TEXT NOT NULL, "
+                + WeatherEntry.COLUMN_WEATHER_OWM_ID + " INTEGER);";
 
         db.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createCityIndex(db);
 
+        createForecastTable(db);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " ADD COLUMN "
+                    + WeatherEntry.COLUMN_WEATHER_OWM_ID + " INTEGER");
+        }
+        if (oldVersion < 5) {
+            // The forecast table is only a cache, so it is rebuilt instead of migrated
+            db.execSQL("DROP TABLE IF EXISTS " + ForecastEntry.TABLE_NAME);
+            createForecastTable(db);
+        }
+        if (oldVersion < 6) {
+            // Keep the oldest row of every city, the cached forecasts of the others go with
+            // them through the ON DELETE CASCADE
+            db.execSQL("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry._ID
+                    + " NOT IN (SELECT MIN(" + WeatherEntry._ID + ") FROM " + WeatherEntry.TABLE_NAME
+                    + " GROUP BY " + WeatherEntry.COLUMN_WEATHER_CITY + " COLLATE NOCASE, "
+                    + WeatherEntry.COLUMN_WEATHER_COUNTRY + " COLLATE NOCASE)");
+            createCityIndex(db);
+        }
+    }
+
+    /**
+     * Create the unique index of the weather table, so a city can be added only once whatever
+     * its case. Lookups of a city with {@link WeatherEntry#CITY_SELECTION} use it too.
+     */
+    private void createCityIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + WeatherEntry.INDEX_CITY_COUNTRY + " ON "
+                + WeatherEntry.TABLE_NAME + "(" + WeatherEntry.COLUMN_WEATHER_CITY + " COLLATE NOCASE, "
+                + WeatherEntry.COLUMN_WEATHER_COUNTRY + " COLLATE NOCASE);");
+    }
+
+    private void createForecastTable(SQLiteDatabase db) {
+        String SQL_CREATE_FORECAST_TABLE = "CREATE TABLE " + ForecastEntry.TABLE_NAME + "("
+                + ForecastEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ForecastEntry.COLUMN_FORECAST_WEATHER_ID + " INTEGER NOT NULL UNIQUE REFERENCES "
+                + WeatherEntry.TABLE_NAME + "(" + WeatherEntry._ID + ") ON DELETE CASCADE, "
+                + ForecastEntry.COLUMN_FORECAST_CITY + " TEXT NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_TEMP_MIN + " REAL NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_TEMP_MAX + " REAL NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_URL + " TEXT, "
+                + ForecastEntry.COLUMN_FORECAST_HUMIDITY + " INTEGER NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_CONDITION_ID + " INTEGER NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_DESCRIPTION + " TEXT, "
+                + ForecastEntry.COLUMN_FORECAST_WIND_SPEED + " REAL NOT NULL, "
+                + ForecastEntry.COLUMN_FORECAST_FETCHED_AT + " INTEGER NOT NULL);";
 
+        db.execSQL(SQL_CREATE_FORECAST_TABLE);
     }
 
 }
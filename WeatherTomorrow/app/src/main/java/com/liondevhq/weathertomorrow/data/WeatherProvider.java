@@ -4,16 +4,28 @@ package com.liondevhq.weathertomorrow.data;
  * Created by pc on 31.01.2017.
  */
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * {@link ContentProvider} for WeatherTomorrow app.
  */
@@ -22,6 +34,11 @@ public class WeatherProvider extends ContentProvider {
     /** Tag for the log messages */
     public static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
+    /** Insert of {@link #bulkInsert(Uri, ContentValues[])}, a city that is there already is skipped */
+    private static final String SQL_INSERT_WEATHER = "INSERT OR IGNORE INTO " + WeatherEntry.TABLE_NAME
+            + " (" + WeatherEntry.COLUMN_WEATHER_CITY + ", " + WeatherEntry.COLUMN_WEATHER_COUNTRY
+            + ", " + WeatherEntry.COLUMN_WEATHER_OWM_ID + ") VALUES (?, ?, ?)";
+
     /** URI matcher code for the content URI for the weather table */
     private static final int WEATHER = 200;
 
@@ -59,9 +76,12 @@ public class WeatherProvider extends ContentProvider {
     /** Database helper object */
     private WeatherDbHelper mDbHelper;
 
+    /** URIs changed by the batch that runs on this thread, null outside of a batch */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new WeatherDbHelper(getContext());
+        mDbHelper = WeatherDbHelper.getInstance(getContext());
         return true;
     }
 
@@ -127,39 +147,158 @@ public class WeatherProvider extends ContentProvider {
 
     /**
      * Insert a weather into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * for that specific row in the database. If the city is in the database already, whatever
+     * its case, nothing is inserted and the URI of the existing row is returned, with
+     * {@link WeatherEntry#PARAM_EXISTING} set.
      */
     private Uri insertWeather(Uri uri, ContentValues values) {
-        // Check that the city is not null
+        checkWeather(values);
         String city = values.getAsString(WeatherEntry.COLUMN_WEATHER_CITY);
-        if (city == null) {
-            throw new IllegalArgumentException("Forecast requires a city");
-        }
-
-        // Check that the country is not null
         String country = values.getAsString(WeatherEntry.COLUMN_WEATHER_COUNTRY);
-        if (country == null) {
-            throw new IllegalArgumentException("Forecast requires a country");
-        }
 
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new forecast location with the given values
-        long id = database.insert(WeatherEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
+        // Insert the new forecast location with the given values, a city that is there already
+        // is kept as it is, with its cached forecast
+        long id = database.insertWithOnConflict(WeatherEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
         if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+            id = findCity(database, city, country);
+            // If the city isn't there either, then the insertion failed. Log an error and return null.
+            if (id == -1) {
+                Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                return null;
+            }
+            return ContentUris.withAppendedId(uri, id).buildUpon()
+                    .appendQueryParameter(WeatherEntry.PARAM_EXISTING, "true")
+                    .build();
         }
 
         // Notify all listeners that the data has changed for the weather content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Check the content values of a new weather.
+     */
+    private static void checkWeather(ContentValues values) {
+        // Check that the city is not null
+        if (values.getAsString(WeatherEntry.COLUMN_WEATHER_CITY) == null) {
+            throw new IllegalArgumentException("Forecast requires a city");
+        }
+
+        // Check that the country is not null
+        if (values.getAsString(WeatherEntry.COLUMN_WEATHER_COUNTRY) == null) {
+            throw new IllegalArgumentException("Forecast requires a country");
+        }
+    }
+
+    /**
+     * Insert the given weathers in one transaction, with a single compiled statement. Like in
+     * {@link #insert(Uri, ContentValues)} a city that is in the database already is skipped.
+     * The listeners are notified once for the whole batch. Return the number of cities added.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != WEATHER) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Check every city first, so an invalid one doesn't fail the batch halfway
+        for (ContentValues weatherValues : values) {
+            checkWeather(weatherValues);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        database.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement statement = database.compileStatement(SQL_INSERT_WEATHER);
+            try {
+                for (ContentValues weatherValues : values) {
+                    statement.bindString(1, weatherValues.getAsString(WeatherEntry.COLUMN_WEATHER_CITY));
+                    statement.bindString(2, weatherValues.getAsString(WeatherEntry.COLUMN_WEATHER_COUNTRY));
+                    Long owmId = weatherValues.getAsLong(WeatherEntry.COLUMN_WEATHER_OWM_ID);
+                    if (owmId != null) {
+                        statement.bindLong(3, owmId);
+                    } else {
+                        statement.bindNull(3);
+                    }
+                    // The row id is -1 if the city was skipped
+                    if (statement.executeInsert() != -1) {
+                        rowsInserted++;
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply the given operations in one transaction, so either all of them or none are stored.
+     * The listeners of every changed URI are notified once, after the whole batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> batchChanges = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+        mBatchChanges.set(batchChanges);
+        database.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatchChanges.remove();
+        }
+
+        for (Uri uri : batchChanges) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * Notify the listeners that the data at the given URI has changed. Inside a batch the URI
+     * is only remembered, until the batch is done.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Return the id of the given city, or -1 if it isn't in the database.
+     */
+    private long findCity(SQLiteDatabase database, String city, String country) {
+        Cursor cursor = database.query(WeatherEntry.TABLE_NAME, new String[] { WeatherEntry._ID },
+                WeatherEntry.CITY_SELECTION, new String[] { city, country }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
@@ -182,7 +321,8 @@ public class WeatherProvider extends ContentProvider {
     /**
      * Update weather in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more weather forecasts).
-     * Return the number of rows that were successfully updated.
+     * Return the number of rows that were successfully updated. A city that is renamed or moved
+     * to another country loses its cached forecast and its OpenWeatherMap id.
      */
     private int updateWeather(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         // If the {@link WeatherEntry#COLUMN_WEATHER_CITY} key is present,
@@ -211,22 +351,133 @@ public class WeatherProvider extends ContentProvider {
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
+        // The checks and the write are in one transaction, so no other write comes between
+        // them. It is always marked successful: inside applyBatch a nested transaction that
+        // isn't would roll back the whole batch, and an update that writes nothing has nothing
+        // to roll back.
+        int rowsUpdated = 0;
+        database.beginTransactionNonExclusive();
+        try {
+            // The cities of the selected rows before the update, both the duplicate check and
+            // the forecasts to drop are based on them. There is nothing to do if they are gone.
+            // A city can't become a duplicate of another one either, then nothing is updated
+            // and the city keeps its forecast.
+            Map<Long, String[]> oldCities = getCities(database, selection, selectionArgs);
+            if (!oldCities.isEmpty() && !isOtherCity(database, values, oldCities)) {
+                // Perform the update on the database and get the number of rows affected. Of
+                // several rows that are given the same city only the first one is updated.
+                rowsUpdated = database.updateWithOnConflict(WeatherEntry.TABLE_NAME, values,
+                        selection, selectionArgs, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+
+            if (rowsUpdated > 0) {
+                // A cached forecast and the OpenWeatherMap id belong to the old city, so drop
+                // them for the rows whose city or country the update has really changed, not
+                // for a change of case or a row that was skipped
+                String movedSelection = getMovedSelection(database, oldCities);
+                if (movedSelection != null) {
+                    ForecastCache.invalidateForecasts(database, movedSelection, null);
+                    if (!values.containsKey(WeatherEntry.COLUMN_WEATHER_OWM_ID)) {
+                        ContentValues noOwmId = new ContentValues();
+                        noOwmId.putNull(WeatherEntry.COLUMN_WEATHER_OWM_ID);
+                        database.update(WeatherEntry.TABLE_NAME, noOwmId, movedSelection, null);
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Returns the city and country of the rows matched by the selection, by row id.
+     */
+    private static Map<Long, String[]> getCities(SQLiteDatabase database, String selection,
+                                                 String[] selectionArgs) {
+        Map<Long, String[]> cities = new HashMap<>();
+        Cursor cursor = database.query(WeatherEntry.TABLE_NAME, new String[] { WeatherEntry._ID,
+                        WeatherEntry.COLUMN_WEATHER_CITY, WeatherEntry.COLUMN_WEATHER_COUNTRY },
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cities.put(cursor.getLong(0), new String[] { cursor.getString(1), cursor.getString(2) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return cities;
+    }
+
+    /**
+     * Returns the selection of the given rows whose city or country is now different from the
+     * one given, ignoring case, or null if none is.
+     */
+    private static String getMovedSelection(SQLiteDatabase database, Map<Long, String[]> oldCities) {
+        String ids = TextUtils.join(",", oldCities.keySet());
+        Map<Long, String[]> newCities = getCities(database, WeatherEntry._ID + " IN (" + ids + ")", null);
+        List<Long> movedIds = new ArrayList<>();
+        for (Map.Entry<Long, String[]> entry : newCities.entrySet()) {
+            String[] oldCity = oldCities.get(entry.getKey());
+            String[] newCity = entry.getValue();
+            if (!oldCity[0].equalsIgnoreCase(newCity[0]) || !oldCity[1].equalsIgnoreCase(newCity[1])) {
+                movedIds.add(entry.getKey());
+            }
+        }
+        if (movedIds.isEmpty()) {
+            return null;
+        }
+        return WeatherEntry._ID + " IN (" + TextUtils.join(",", movedIds) + ")";
+    }
+
+    /**
+     * Returns true if updating the given rows would give one of them the city and country of
+     * another row, so it would duplicate that row. A city or country that isn't in the values
+     * is the one the row has already. Rows the values don't move are skipped.
+     */
+    private boolean isOtherCity(SQLiteDatabase database, ContentValues values,
+                                Map<Long, String[]> oldCities) {
+        String city = values.getAsString(WeatherEntry.COLUMN_WEATHER_CITY);
+        String country = values.getAsString(WeatherEntry.COLUMN_WEATHER_COUNTRY);
+        if (city == null && country == null) {
+            return false;
+        }
+
+        String otherRows = WeatherEntry.CITY_SELECTION + " AND " + WeatherEntry._ID + " NOT IN ("
+                + TextUtils.join(",", oldCities.keySet()) + ")";
+        for (String[] oldCity : oldCities.values()) {
+            String[] args = {
+                    city != null ? city : oldCity[0],
+                    country != null ? country : oldCity[1] };
+            if (args[0].equalsIgnoreCase(oldCity[0]) && args[1].equalsIgnoreCase(oldCity[1])) {
+                continue;
+            }
+            Cursor cursor = database.query(WeatherEntry.TABLE_NAME, new String[] { WeatherEntry._ID },
+                    otherRows, args, null, null, null);
+            try {
+                if (cursor.getCount() > 0) {
+                    return true;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return false;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database
+        // Get writable database. Cached forecasts of the deleted cities are removed by
+        // the ON DELETE CASCADE of the forecast table.
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
@@ -251,7 +502,7 @@ public class WeatherProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows deleted
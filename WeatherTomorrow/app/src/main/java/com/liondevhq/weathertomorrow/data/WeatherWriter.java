@@ -0,0 +1,223 @@
+package com.liondevhq.weathertomorrow.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.liondevhq.weathertomorrow.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes to {@link WeatherProvider} on a background thread, the way
+ * {@link android.content.AsyncQueryHandler} does, so the screens never wait for the database.
+ * Writes that are started within {@link #BATCH_WINDOW_MILLIS} of each other are applied
+ * together with {@link WeatherProvider#applyBatch}, in one transaction and with one change
+ * notification. Every caller gets the result of its own write on the main thread, after the
+ * batch has been committed, so a reload started from there sees the change.
+ */
+public final class WeatherWriter {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = WeatherWriter.class.getSimpleName();
+
+    /** Time a write waits for more writes to be applied with */
+    public static final long BATCH_WINDOW_MILLIS = 50;
+
+    /**
+     * Listener that is told about the result of a write.
+     */
+    public interface OnWriteCompleteListener {
+
+        /**
+         * Called on the main thread when the write has been applied.
+         *
+         * @param result URI of the inserted row or number of rows changed, null if the write failed
+         */
+        void onWriteComplete(ContentProviderResult result);
+    }
+
+    /**
+     * Listener that is told about the result of an insert.
+     */
+    public interface OnInsertCompleteListener {
+
+        /**
+         * Called on the main thread when the insert has been applied.
+         *
+         * @param uri     URI of the city, null if the insert failed
+         * @param existed true if the city was in the database already and nothing was inserted
+         */
+        void onInsertComplete(Uri uri, boolean existed);
+    }
+
+    /** Writer shared by the whole process, created on first use */
+    private static WeatherWriter sInstance;
+
+    /** Resolver the writes are applied with */
+    private final ContentResolver mResolver;
+
+    /** Handler of the thread the writes are applied on */
+    private final Handler mWriteHandler;
+
+    /** Handler of the main thread, where the results are delivered */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes that wait for the next batch and their listeners, guarded by the lock */
+    private final Object mLock = new Object();
+    private final ArrayList<ContentProviderOperation> mPendingOperations = new ArrayList<>();
+    private final List<OnWriteCompleteListener> mPendingListeners = new ArrayList<>();
+
+    /** Applies the writes that are pending */
+    private final Runnable mApplyPending = new Runnable() {
+        @Override
+        public void run() {
+            applyPending();
+        }
+    };
+
+    private WeatherWriter(Context context) {
+        mResolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the writer of the process.
+     */
+    public static synchronized WeatherWriter getInstance(Context context) {
+        if (sInstance == null) {
+            // The application context, so the writer doesn't keep an activity alive
+            sInstance = new WeatherWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a city with the given values into {@link WeatherEntry#CONTENT_URI}. A city that
+     * is there already, whatever its case, is kept as it is.
+     *
+     * @param listener gets the URI of the city and whether it existed, or null
+     */
+    public void startInsert(ContentValues values, final OnInsertCompleteListener listener) {
+        OnWriteCompleteListener writeListener = null;
+        if (listener != null) {
+            writeListener = new OnWriteCompleteListener() {
+                @Override
+                public void onWriteComplete(ContentProviderResult result) {
+                    Uri uri = result != null ? result.uri : null;
+                    if (uri == null) {
+                        listener.onInsertComplete(null, false);
+                        return;
+                    }
+                    boolean existed = uri.getBooleanQueryParameter(WeatherEntry.PARAM_EXISTING, false);
+                    listener.onInsertComplete(
+                            ContentUris.withAppendedId(WeatherEntry.CONTENT_URI, ContentUris.parseId(uri)),
+                            existed);
+                }
+            };
+        }
+        enqueue(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(values)
+                .build(), writeListener);
+    }
+
+    /**
+     * Update the cities of the given URI with the given values.
+     *
+     * @param listener gets the number of cities updated, or null
+     */
+    public void startUpdate(Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+        enqueue(ContentProviderOperation.newUpdate(uri)
+                .withValues(values)
+                .build(), listener);
+    }
+
+    /**
+     * Delete the cities of the given URI.
+     *
+     * @param listener gets the number of cities deleted, or null
+     */
+    public void startDelete(Uri uri, OnWriteCompleteListener listener) {
+        enqueue(ContentProviderOperation.newDelete(uri).build(), listener);
+    }
+
+    /**
+     * Add a write to the next batch. The first write of a batch schedules it.
+     */
+    private void enqueue(ContentProviderOperation operation, OnWriteCompleteListener listener) {
+        synchronized (mLock) {
+            mPendingOperations.add(operation);
+            mPendingListeners.add(listener);
+            if (mPendingOperations.size() > 1) {
+                return;
+            }
+        }
+        mWriteHandler.postDelayed(mApplyPending, BATCH_WINDOW_MILLIS);
+    }
+
+    /**
+     * Apply the pending writes as one batch and deliver their results. This is on the write thread.
+     */
+    private void applyPending() {
+        final ArrayList<ContentProviderOperation> operations;
+        final List<OnWriteCompleteListener> listeners;
+        synchronized (mLock) {
+            operations = new ArrayList<>(mPendingOperations);
+            listeners = new ArrayList<>(mPendingListeners);
+            mPendingOperations.clear();
+            mPendingListeners.clear();
+        }
+
+        ContentProviderResult[] batchResults = apply(operations);
+        if (batchResults == null && operations.size() > 1) {
+            // One bad write must not fail the others, so apply them one by one
+            batchResults = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+                single.add(operations.get(i));
+                ContentProviderResult[] results = apply(single);
+                batchResults[i] = results != null ? results[0] : null;
+            }
+        }
+
+        final ContentProviderResult[] results = batchResults;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < listeners.size(); i++) {
+                    OnWriteCompleteListener listener = listeners.get(i);
+                    if (listener != null) {
+                        listener.onWriteComplete(results != null ? results[i] : null);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply the given writes in one transaction. Return their results, or null if they failed.
+     */
+    private ContentProviderResult[] apply(ArrayList<ContentProviderOperation> operations) {
+        try {
+            return mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            // Invalid values throw IllegalArgumentException, database failures SQLException
+            Log.e(LOG_TAG, "Problem writing " + operations.size() + " operations.", e);
+            return null;
+        }
+    }
+}
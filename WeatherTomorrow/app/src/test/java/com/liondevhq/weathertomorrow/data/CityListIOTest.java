@@ -0,0 +1,65 @@
+package com.liondevhq.weathertomorrow.data;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes CSV records the way {@link CityListIO} exports them and reads them back the way it
+ * imports them.
+ */
+public class CityListIOTest {
+
+    @Test
+    public void csv_roundTrip_keepsEveryField() throws IOException {
+        String[][] cities = {
+                { "London", "gb", "2643743" },
+                { "Washington, D.C.", "us", "" },
+                { "The \"Big\" Apple", "us", "" },
+                { "Two\nLines", "fr", "" },
+                { "\"Quoted\nover, three\n\"\"lines\"\"\"", "de", "" },
+                { "", "", "" } };
+        StringBuilder csv = new StringBuilder("city,country,owm_id\n");
+        for (String[] city : cities) {
+            csv.append(CityListIO.quoteCsv(city[0])).append(',')
+                    .append(CityListIO.quoteCsv(city[1])).append(',')
+                    .append(city[2]).append('\n');
+        }
+
+        BufferedReader reader = new BufferedReader(new StringReader(csv.toString()));
+        assertEquals("city,country,owm_id", CityListIO.readCsvRecord(reader));
+        for (String[] city : cities) {
+            assertEquals(Arrays.asList(city),
+                    CityListIO.splitCsvLine(CityListIO.readCsvRecord(reader)));
+        }
+        assertNull(CityListIO.readCsvRecord(reader));
+    }
+
+    @Test
+    public void readCsvRecord_crlfInQuotedField_isReadAsNewline() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new StringReader("\"Two\r\nLines\",fr\r\nParis,fr\r\n"));
+
+        assertEquals(Arrays.asList("Two\nLines", "fr"),
+                CityListIO.splitCsvLine(CityListIO.readCsvRecord(reader)));
+        assertEquals(Arrays.asList("Paris", "fr"),
+                CityListIO.splitCsvLine(CityListIO.readCsvRecord(reader)));
+        assertNull(CityListIO.readCsvRecord(reader));
+    }
+
+    @Test
+    public void readCsvRecord_unclosedQuote_runsToTheEnd() throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader("\"Paris,fr\nLondon,gb\n"));
+
+        List<String> fields = CityListIO.splitCsvLine(CityListIO.readCsvRecord(reader));
+        assertEquals(Arrays.asList("Paris,fr\nLondon,gb"), fields);
+        assertNull(CityListIO.readCsvRecord(reader));
+    }
+}
@@ -0,0 +1,55 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Recorded OpenWeatherMap forecast responses shared by the tests, the benchmarks
+ * and the load test.
+ */
+public final class Fixtures {
+
+    /** Time the fixtures were recorded at in seconds since epoch, an hour before the first interval */
+    public static final long RECORDED_AT = 1485795600L;
+
+    /** Moscow, 16 intervals, with the timezone of the city */
+    public static final String MOSCOW = "moscow_cnt16.json";
+
+    /** New York, 40 intervals, with the timezone of the city */
+    public static final String NEW_YORK = "new_york_cnt40.json";
+
+    /** London, 16 intervals, an older response without the timezone of the city */
+    public static final String LONDON_NO_TIMEZONE = "london_cnt16_no_timezone.json";
+
+    /** Every fixture */
+    public static final String[] ALL = { MOSCOW, NEW_YORK, LONDON_NO_TIMEZONE };
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Fixtures} object.
+     * This class is only meant to hold static variables and methods.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Read the given fixture from the classpath.
+     */
+    public static byte[] read(String name) throws IOException {
+        InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (inputStream == null) {
+            throw new IOException("No fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+            return body.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing and aggregating the recorded OpenWeatherMap responses of
+ * {@link Fixtures}. Run with the gc profiler to get the allocations per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ForecastPipelineBenchmark {
+
+    /** Offset used for the fixtures without the timezone of the city */
+    private static final int DEFAULT_UTC_OFFSET = 0;
+
+    /** Day that is shown by the app, tomorrow */
+    private static final int FORECAST_DAY = 1;
+
+    /** Number of days the multi-day benchmark sums up */
+    private static final int DAY_COUNT = 5;
+
+    @Param({"moscow_cnt16.json", "new_york_cnt40.json", "london_cnt16_no_timezone.json"})
+    public String fixture;
+
+    /** Raw bytes of the fixture */
+    private byte[] mBody;
+
+    /** Fixture parsed once, for the aggregation only benchmarks */
+    private ForecastResponse mResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBody = Fixtures.read(fixture);
+        mResponse = ForecastParser.parse(new ByteArrayInputStream(mBody), DEFAULT_UTC_OFFSET);
+        if (mResponse.getDay(Fixtures.RECORDED_AT, FORECAST_DAY) == null) {
+            throw new IllegalStateException("No intervals of tomorrow in " + fixture);
+        }
+    }
+
+    /**
+     * Parse the response into its intervals.
+     */
+    @Benchmark
+    public ForecastResponse parse() throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(mBody), DEFAULT_UTC_OFFSET);
+    }
+
+    /**
+     * Sum up tomorrow from the already parsed intervals.
+     */
+    @Benchmark
+    public DaySummary aggregateTomorrow() {
+        return mResponse.getDay(Fixtures.RECORDED_AT, FORECAST_DAY);
+    }
+
+    /**
+     * Sum up every day of the response from the already parsed intervals.
+     */
+    @Benchmark
+    public DaySummary[] aggregateAllDays() {
+        return mResponse.getAggregator().summarize(Fixtures.RECORDED_AT, mResponse.getUtcOffset(),
+                DAY_COUNT);
+    }
+
+    /**
+     * Parse the response and sum up tomorrow, what the app does for every city.
+     */
+    @Benchmark
+    public DaySummary parseAndAggregate() throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(mBody), DEFAULT_UTC_OFFSET)
+                .getDay(Fixtures.RECORDED_AT, FORECAST_DAY);
+    }
+}
@@ -0,0 +1,319 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the OpenWeatherMap forecast API. It serves the recorded responses of
+ * {@link Fixtures} on /data/2.5/forecast with their intervals moved to start now, so the app
+ * or the load test can be pointed at it instead of the live API.
+ * Latency, jitter, error responses and truncated bodies can be injected. Bodies are sent
+ * with gzip when the client asks for it, and a quota of calls per minute can be enforced
+ * with 429 responses, like the live API does.
+ */
+public final class ForecastStubServer {
+
+    /** Path of the forecast API */
+    public static final String FORECAST_PATH = "/data/2.5/forecast";
+
+    /** Length of an interval in seconds */
+    private static final int SLOT_SECONDS = 3 * 60 * 60;
+
+    /** Charset of the responses */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Behaviour of the stub server.
+     */
+    public static final class Options {
+
+        /** Port to listen on, 0 picks a free one */
+        public int port = 0;
+
+        /** Delay of every response in milliseconds */
+        public long latencyMillis = 0;
+
+        /** Random extra delay of every response, from -jitter to +jitter milliseconds */
+        public long jitterMillis = 0;
+
+        /** Share of the requests answered with {@link #errorCode}, from 0 to 1 */
+        public double errorRate = 0;
+
+        /** Response code of the injected errors, 429 and 5xx are what the live API sends */
+        public int errorCode = 500;
+
+        /** Share of the requests whose body is cut in the middle, from 0 to 1 */
+        public double truncateRate = 0;
+
+        /** Whether bodies are sent with gzip to the clients that accept it */
+        public boolean gzip = true;
+
+        /** Calls per calendar minute answered before the rest get 429, 0 for no quota */
+        public int quotaPerMinute = 0;
+    }
+
+    /** Behaviour of the server */
+    private final Options mOptions;
+
+    /** Bodies of the fixtures with the intervals moved to start now */
+    private final byte[][] mBodies;
+
+    /** The same bodies compressed with gzip */
+    private final byte[][] mGzipBodies;
+
+    /** Threads that answer the requests, one per request so the latency doesn't queue them */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /** Guards the quota counters */
+    private final Object mQuotaLock = new Object();
+
+    /** Minute the calls are counted for, in minutes since epoch */
+    private long mQuotaMinute;
+
+    /** Calls made in {@link #mQuotaMinute} */
+    private int mQuotaCalls;
+
+    /** The HTTP server, null until started */
+    private HttpServer mServer;
+
+    public ForecastStubServer(Options options) throws IOException {
+        mOptions = options;
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        // Keep the intervals aligned to the 3 hours grid, like the live API does
+        long shift = (now - Fixtures.RECORDED_AT) / SLOT_SECONDS * SLOT_SECONDS;
+
+        mBodies = new byte[Fixtures.ALL.length][];
+        mGzipBodies = new byte[Fixtures.ALL.length][];
+        for (int i = 0; i < Fixtures.ALL.length; i++) {
+            mBodies[i] = shiftTimestamps(Fixtures.read(Fixtures.ALL[i]), shift);
+            mGzipBodies[i] = gzip(mBodies[i]);
+        }
+    }
+
+    /**
+     * Start listening. Returns the base URL to put in front of {@link #FORECAST_PATH}.
+     */
+    public synchronized String start() throws IOException {
+        // Without it the headers and the body wait for each other's ACK, 40 ms per response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", mOptions.port), 0);
+        mServer.createContext(FORECAST_PATH, new ForecastHandler());
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        return getBaseUrl();
+    }
+
+    /**
+     * Returns the base URL of the running server, e.g. http://127.0.0.1:8080
+     */
+    public synchronized String getBaseUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    /**
+     * Stop the server and its threads.
+     */
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mServer = null;
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Move every "dt" of the given response by the given number of seconds.
+     */
+    private static byte[] shiftTimestamps(byte[] body, long shift) {
+        JsonObject response = JsonParser.parseReader(
+                new InputStreamReader(new ByteArrayInputStream(body), UTF_8)).getAsJsonObject();
+        JsonArray list = response.getAsJsonArray("list");
+        for (JsonElement slot : list) {
+            JsonObject slotObject = slot.getAsJsonObject();
+            slotObject.addProperty("dt", slotObject.get("dt").getAsLong() + shift);
+        }
+        return response.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Compress the given body with gzip.
+     */
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream outputStream = new GZIPOutputStream(compressed);
+        outputStream.write(body);
+        outputStream.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Answers the forecast requests.
+     */
+    private final class ForecastHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long delay = mOptions.latencyMillis;
+                if (mOptions.jitterMillis > 0) {
+                    delay += random.nextLong(-mOptions.jitterMillis, mOptions.jitterMillis + 1);
+                }
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+
+                if (!FORECAST_PATH.equals(exchange.getRequestURI().getPath())) {
+                    send(exchange, 404, errorBody(404));
+                } else if (!takeQuota()) {
+                    // Like the live API, tell the client when the next minute starts
+                    long now = System.currentTimeMillis();
+                    long retryAfter = TimeUnit.MILLISECONDS.toSeconds(
+                            TimeUnit.MINUTES.toMillis(1) - now % TimeUnit.MINUTES.toMillis(1)) + 1;
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+                    send(exchange, 429, errorBody(429));
+                } else if (random.nextDouble() < mOptions.errorRate) {
+                    send(exchange, mOptions.errorCode, errorBody(mOptions.errorCode));
+                } else {
+                    // The same city always gets the same fixture
+                    String query = exchange.getRequestURI().getRawQuery();
+                    int hash = query != null ? query.hashCode() : 0;
+                    int fixture = (hash & Integer.MAX_VALUE) % mBodies.length;
+                    byte[] body = mBodies[fixture];
+                    if (mOptions.gzip && acceptsGzip(exchange)) {
+                        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                        body = mGzipBodies[fixture];
+                    }
+
+                    if (random.nextDouble() < mOptions.truncateRate) {
+                        sendTruncated(exchange, body);
+                    } else {
+                        send(exchange, 200, body);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Count a call against the quota of the current minute. Returns false if the quota
+         * is used up.
+         */
+        private boolean takeQuota() {
+            if (mOptions.quotaPerMinute <= 0) {
+                return true;
+            }
+            long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+            synchronized (mQuotaLock) {
+                if (minute != mQuotaMinute) {
+                    mQuotaMinute = minute;
+                    mQuotaCalls = 0;
+                }
+                return ++mQuotaCalls <= mOptions.quotaPerMinute;
+            }
+        }
+
+        /**
+         * Returns whether the request has gzip in its Accept-Encoding.
+         */
+        private boolean acceptsGzip(HttpExchange exchange) {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.US).contains("gzip");
+        }
+
+        /**
+         * Body of an error response in the format of the live API.
+         */
+        private byte[] errorBody(int code) {
+            return ("{\"cod\":\"" + code + "\",\"message\":\"stub error\"}").getBytes(UTF_8);
+        }
+
+        private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(code, body.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(body);
+            outputStream.close();
+        }
+
+        /**
+         * Announce the full body but send only half of it, then drop the connection.
+         */
+        private void sendTruncated(HttpExchange exchange, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(body, 0, body.length / 2);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Run the stub server until the process is killed, so the app can be pointed at it with
+     * -PowmBaseUrl. Options are given as --port=8080 --latency=200 --jitter=50
+     * --error-rate=0.05 --error-code=429 --truncate-rate=0.01 --gzip=false --quota=60
+     */
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.port = 8080;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            switch (pair[0]) {
+                case "--port":
+                    options.port = Integer.parseInt(pair[1]);
+                    break;
+                case "--latency":
+                    options.latencyMillis = Long.parseLong(pair[1]);
+                    break;
+                case "--jitter":
+                    options.jitterMillis = Long.parseLong(pair[1]);
+                    break;
+                case "--error-rate":
+                    options.errorRate = Double.parseDouble(pair[1]);
+                    break;
+                case "--error-code":
+                    options.errorCode = Integer.parseInt(pair[1]);
+                    break;
+                case "--truncate-rate":
+                    options.truncateRate = Double.parseDouble(pair[1]);
+                    break;
+                case "--gzip":
+                    options.gzip = Boolean.parseBoolean(pair[1]);
+                    break;
+                case "--quota":
+                    options.quotaPerMinute = Integer.parseInt(pair[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + pair[0]);
+            }
+        }
+
+        ForecastStubServer server = new ForecastStubServer(options);
+        System.out.println("Serving forecasts on " + server.start() + FORECAST_PATH);
+    }
+}
@@ -0,0 +1,192 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how long a refresh of many cities takes against {@link ForecastStubServer}, with the
+ * same {@link ForecastFetcher} the app uses. Prints p50/p95/p99 of the refresh time for every
+ * number of cities, followed by the request timings of {@link MetricsRegistry}.
+ *
+ * Options are given as --name=value:
+ * --cities=10,100,1000   numbers of cities of a refresh
+ * --refreshes=20         measured refreshes for every number of cities
+ * --pool=4               concurrent requests of a refresh
+ * --base-url=URL         use a running server instead of starting the stub server
+ * --rate=600             calls per minute of the client's {@link RateLimiter}, 0 for no limit
+ * --attempts=3           attempts of a request on 429 and 5xx, see {@link RequestScheduler}
+ * --latency, --jitter, --error-rate, --error-code, --truncate-rate, --gzip, --quota
+ *                        see {@link ForecastStubServer}
+ *
+ * Run it with -Dhttp.keepAlive=false to see what the refresh costs without connection reuse.
+ */
+public final class RefreshLoadTest {
+
+    /** Concurrent requests of a refresh, the same as the app uses */
+    private static final int DEFAULT_POOL_SIZE = 4;
+
+    private RefreshLoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] cityCounts = { 10, 100, 1000 };
+        int refreshes = 20;
+        int poolSize = DEFAULT_POOL_SIZE;
+        String baseUrl = null;
+        int rate = 0;
+        int attempts = RequestScheduler.DEFAULT_MAX_ATTEMPTS;
+        ForecastStubServer.Options options = new ForecastStubServer.Options();
+        options.latencyMillis = 20;
+        options.jitterMillis = 10;
+
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            switch (pair[0]) {
+                case "--cities":
+                    String[] counts = pair[1].split(",");
+                    cityCounts = new int[counts.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        cityCounts[i] = Integer.parseInt(counts[i].trim());
+                    }
+                    break;
+                case "--refreshes":
+                    refreshes = Integer.parseInt(pair[1]);
+                    break;
+                case "--pool":
+                    poolSize = Integer.parseInt(pair[1]);
+                    break;
+                case "--base-url":
+                    baseUrl = pair[1];
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(pair[1]);
+                    break;
+                case "--attempts":
+                    attempts = Integer.parseInt(pair[1]);
+                    break;
+                case "--latency":
+                    options.latencyMillis = Long.parseLong(pair[1]);
+                    break;
+                case "--jitter":
+                    options.jitterMillis = Long.parseLong(pair[1]);
+                    break;
+                case "--error-rate":
+                    options.errorRate = Double.parseDouble(pair[1]);
+                    break;
+                case "--error-code":
+                    options.errorCode = Integer.parseInt(pair[1]);
+                    break;
+                case "--truncate-rate":
+                    options.truncateRate = Double.parseDouble(pair[1]);
+                    break;
+                case "--gzip":
+                    options.gzip = Boolean.parseBoolean(pair[1]);
+                    break;
+                case "--quota":
+                    options.quotaPerMinute = Integer.parseInt(pair[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + pair[0]);
+            }
+        }
+
+        // The stub server answers in milliseconds, so the backoff is a tenth of the app's
+        RequestScheduler scheduler = new RequestScheduler(
+                rate > 0 ? RateLimiter.forQuota(rate, null) : null, attempts,
+                RequestScheduler.DEFAULT_BASE_BACKOFF_MILLIS / 10,
+                RequestScheduler.DEFAULT_MAX_BACKOFF_MILLIS);
+
+        ForecastStubServer server = null;
+        if (baseUrl == null) {
+            server = new ForecastStubServer(options);
+            baseUrl = server.start();
+        }
+        try {
+            System.out.println(String.format(Locale.US,
+                    "Refreshes of %s, pool %d, latency %d+-%d ms, errors %.3f (%d), truncated %.3f,"
+                            + " gzip %b, keep-alive %s, quota %d/min, rate %d/min, attempts %d",
+                    baseUrl, poolSize, options.latencyMillis, options.jitterMillis,
+                    options.errorRate, options.errorCode, options.truncateRate, options.gzip,
+                    System.getProperty("http.keepAlive", "true"), options.quotaPerMinute, rate,
+                    attempts));
+            System.out.println(String.format(Locale.US, "%8s %10s %10s %10s %10s %10s",
+                    "cities", "refreshes", "p50 ms", "p95 ms", "p99 ms", "failed"));
+            for (int cityCount : cityCounts) {
+                run(baseUrl, cityCount, refreshes, poolSize, scheduler);
+            }
+
+            // Where the time of the requests went, over all the refreshes above
+            System.out.println();
+            System.out.print(MetricsRegistry.getDefault().report());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Measure the given number of refreshes of cityCount cities and print the percentiles.
+     */
+    private static void run(String baseUrl, int cityCount, int refreshes, int poolSize,
+                            RequestScheduler scheduler) throws IOException {
+        List<URL> urls = new ArrayList<>(cityCount);
+        for (int i = 0; i < cityCount; i++) {
+            urls.add(new URL(baseUrl + ForecastStubServer.FORECAST_PATH + "?id=" + (i + 1)
+                    + "&cnt=16&units=metric&appid=stub"));
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        ForecastFetcher.Listener listener = new ForecastFetcher.Listener() {
+            @Override
+            public void onForecastFetched(int index, ForecastResponse response) {
+            }
+
+            @Override
+            public void onForecastFailed(int index, Exception e) {
+                failures.incrementAndGet();
+            }
+        };
+
+        // A refresh that isn't measured, to load the classes and open the first connections
+        ForecastFetcher.fetchAll(urls, poolSize, 0, null, scheduler);
+
+        long[] refreshTimes = new long[refreshes];
+        for (int i = 0; i < refreshes; i++) {
+            long start = System.nanoTime();
+            ForecastFetcher.fetchAll(urls, poolSize, 0, listener, scheduler);
+            refreshTimes[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(refreshTimes);
+        System.out.println(String.format(Locale.US, "%8d %10d %10.1f %10.1f %10.1f %10d",
+                cityCount, refreshes,
+                toMillis(percentile(refreshTimes, 50)),
+                toMillis(percentile(refreshTimes, 95)),
+                toMillis(percentile(refreshTimes, 99)),
+                failures.get()));
+    }
+
+    /**
+     * Return the given percentile of the sorted values, nearest rank.
+     */
+    private static long percentile(long[] sortedValues, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
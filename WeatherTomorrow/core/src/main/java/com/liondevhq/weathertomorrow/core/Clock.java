@@ -0,0 +1,45 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time source of the {@link RateLimiter} and the {@link RequestScheduler}, so the tests can
+ * run the refills and the backoffs without waiting for them.
+ */
+interface Clock {
+
+    /** Clock of the system, the sleeps really wait */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    /**
+     * Returns the time for measuring intervals in nanoseconds, like {@link System#nanoTime()}.
+     */
+    long nanoTime();
+
+    /**
+     * Returns the wall clock time in milliseconds since epoch.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Sleep for the given time in nanoseconds.
+     *
+     * @throws InterruptedException if the thread is interrupted while it sleeps
+     */
+    void sleep(long nanos) throws InterruptedException;
+}
@@ -0,0 +1,108 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stops a refresh that is no longer needed from another thread. Canceling drops the requests
+ * that haven't started, wakes the ones waiting for the quota or a retry and disconnects the
+ * ones in flight, so none of them keeps using the network until it is done.
+ * It is cheap to call on the main thread, nothing waits for the requests to stop.
+ */
+public final class FetchCancellation {
+
+    /** True once {@link #cancel()} has been called */
+    private volatile boolean mCanceled;
+
+    /** Connections of the requests in flight */
+    private final Set<HttpURLConnection> mConnections = new HashSet<>();
+
+    /** Actions run on cancel, e.g. stopping the worker threads */
+    private final List<Runnable> mListeners = new ArrayList<>();
+
+    /**
+     * Returns true if the refresh has been canceled.
+     */
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Cancel the refresh. Does nothing if it is canceled already.
+     */
+    public void cancel() {
+        List<Runnable> listeners;
+        List<HttpURLConnection> connections;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listeners = new ArrayList<>(mListeners);
+            connections = new ArrayList<>(mConnections);
+            mListeners.clear();
+            mConnections.clear();
+        }
+
+        // Stop the queued and waiting requests first, so none starts a new connection
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        // A blocked connect or read fails right away once its connection is disconnected
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Throw if the refresh has been canceled.
+     *
+     * @throws InterruptedIOException if the refresh has been canceled
+     */
+    public void throwIfCanceled() throws InterruptedIOException {
+        if (mCanceled) {
+            throw new InterruptedIOException("Refresh canceled");
+        }
+    }
+
+    /**
+     * Run the given action when the refresh is canceled, or right away if it is already.
+     */
+    public void addOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Forget an action added with {@link #addOnCancelListener(Runnable)}.
+     */
+    public synchronized void removeOnCancelListener(Runnable listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Disconnect the given connection when the refresh is canceled.
+     *
+     * @throws InterruptedIOException if the refresh has been canceled already
+     */
+    synchronized void register(HttpURLConnection connection) throws InterruptedIOException {
+        throwIfCanceled();
+        mConnections.add(connection);
+    }
+
+    /**
+     * Forget a connection whose request is over.
+     */
+    synchronized void unregister(HttpURLConnection connection) {
+        mConnections.remove(connection);
+    }
+}
@@ -0,0 +1,230 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.util.Arrays;
+
+/**
+ * Collects the 3-hours intervals of a forecast response and sums them up per day.
+ * Every interval is put into the day it belongs to by its own "dt" timestamp in the local
+ * time of the city, so today, tomorrow or any later day can be taken from the same response.
+ */
+public final class ForecastAggregator {
+
+    /** Number of seconds in a day */
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /** Number of intervals the arrays are created for, a single request has 16 of them */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Start of every interval in seconds since epoch, UTC */
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private double[] mTempMins = new double[INITIAL_CAPACITY];
+    private double[] mTempMaxs = new double[INITIAL_CAPACITY];
+    private double[] mHumidities = new double[INITIAL_CAPACITY];
+    private double[] mWindSpeeds = new double[INITIAL_CAPACITY];
+    private int[] mConditionIds = new int[INITIAL_CAPACITY];
+    private String[] mDescriptions = new String[INITIAL_CAPACITY];
+
+    /** Number of intervals added */
+    private int mSize;
+
+    /**
+     * Add a single 3-hours interval.
+     *
+     * @param time start of the interval in seconds since epoch, the "dt" field
+     */
+    public void addSlot(long time, double tempMin, double tempMax, double humidity,
+                        int conditionId, String description, double windSpeed) {
+        if (mSize == mTimes.length) {
+            int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mTempMins = Arrays.copyOf(mTempMins, capacity);
+            mTempMaxs = Arrays.copyOf(mTempMaxs, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mConditionIds = Arrays.copyOf(mConditionIds, capacity);
+            mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+        }
+        mTimes[mSize] = time;
+        mTempMins[mSize] = tempMin;
+        mTempMaxs[mSize] = tempMax;
+        mHumidities[mSize] = humidity;
+        mWindSpeeds[mSize] = windSpeed;
+        mConditionIds[mSize] = conditionId;
+        mDescriptions[mSize] = description;
+        mSize++;
+    }
+
+    /**
+     * Returns the number of intervals added.
+     */
+    public int getSlotCount() {
+        return mSize;
+    }
+
+    /**
+     * Sum up the intervals of the first dayCount days in one pass. Day 0 is the day of now
+     * in the local time of the city, day 1 is tomorrow and so on.
+     * A day without intervals in the response is returned as null.
+     *
+     * @param now current time in seconds since epoch
+     * @param utcOffset offset of the city's local time from UTC in seconds
+     * @param dayCount number of days to sum up
+     */
+    public DaySummary[] summarize(long now, int utcOffset, int dayCount) {
+        long today = localDay(now, utcOffset);
+        DayAccumulator[] days = new DayAccumulator[dayCount];
+
+        for (int i = 0; i < mSize; i++) {
+            long day = localDay(mTimes[i], utcOffset) - today;
+            if (day < 0 || day >= dayCount) {
+                continue;
+            }
+            DayAccumulator accumulator = days[(int) day];
+            if (accumulator == null) {
+                accumulator = new DayAccumulator();
+                days[(int) day] = accumulator;
+            }
+            accumulator.add(mTempMins[i], mTempMaxs[i], mHumidities[i], mConditionIds[i],
+                    mDescriptions[i], mWindSpeeds[i]);
+        }
+
+        DaySummary[] summaries = new DaySummary[dayCount];
+        for (int day = 0; day < dayCount; day++) {
+            if (days[day] != null) {
+                summaries[day] = days[day].toSummary();
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Return the number of the local day the given time belongs to, counted from the epoch.
+     */
+    private static long localDay(long time, int utcOffset) {
+        long localTime = time + utcOffset;
+        // Round down for times before the epoch too
+        long day = localTime / SECONDS_PER_DAY;
+        if (localTime % SECONDS_PER_DAY < 0) {
+            day--;
+        }
+        return day;
+    }
+
+    /**
+     * Values of a single day summed up from its intervals.
+     */
+    public static final class DaySummary {
+
+        /** Lowest temperature of the day */
+        public final double tempMin;
+
+        /** Highest temperature of the day */
+        public final double tempMax;
+
+        /** Mean humidity of the day */
+        public final double humidity;
+
+        /** Mean wind speed of the day */
+        public final double windSpeed;
+
+        /** Most frequent OpenWeatherMap condition code of the day */
+        public final int conditionId;
+
+        /** Description of the most frequent condition code of the day */
+        public final String description;
+
+        /** Number of intervals the day has been summed up from */
+        public final int slotCount;
+
+        DaySummary(double tempMin, double tempMax, double humidity, double windSpeed,
+                   int conditionId, String description, int slotCount) {
+            this.tempMin = tempMin;
+            this.tempMax = tempMax;
+            this.humidity = humidity;
+            this.windSpeed = windSpeed;
+            this.conditionId = conditionId;
+            this.description = description;
+            this.slotCount = slotCount;
+        }
+    }
+
+    /**
+     * Running min, max, sums and condition counts of a single day.
+     */
+    private static final class DayAccumulator {
+
+        /** A day has 8 intervals, so there are never more distinct conditions than that */
+        private static final int CONDITIONS_CAPACITY = 8;
+
+        //Get every quoter of the day to fetch it's min and max temperature
+        double minTemp = Double.POSITIVE_INFINITY;
+        double maxTemp = Double.NEGATIVE_INFINITY;
+
+        //Humidity sum holder
+        double humiditySum = 0;
+
+        //Wind speed sum holder
+        double windSpeedSum = 0;
+
+        //Distinct condition codes in the order of their first interval, with their counts
+        int[] conditionIds = new int[CONDITIONS_CAPACITY];
+        int[] conditionCounts = new int[CONDITIONS_CAPACITY];
+
+        //Description of the first interval of every condition code
+        String[] conditionDescriptions = new String[CONDITIONS_CAPACITY];
+
+        //Number of distinct condition codes
+        int conditionCount = 0;
+
+        //Number of intervals added
+        int slotCount = 0;
+
+        void add(double min, double max, double humidity, int conditionId,
+                 String description, double windSpeed) {
+            //Compare initial min and max values with the values from JSON
+            minTemp = Math.min(min, minTemp);
+            maxTemp = Math.max(max, maxTemp);
+
+            //Humidity addition
+            humiditySum += humidity;
+
+            //Count the condition code, there are only a few of them, so a scan is the fastest
+            int index = 0;
+            while (index < conditionCount && conditionIds[index] != conditionId) {
+                index++;
+            }
+            if (index == conditionCount) {
+                if (conditionCount == conditionIds.length) {
+                    int capacity = conditionCount * 2;
+                    conditionIds = Arrays.copyOf(conditionIds, capacity);
+                    conditionCounts = Arrays.copyOf(conditionCounts, capacity);
+                    conditionDescriptions = Arrays.copyOf(conditionDescriptions, capacity);
+                }
+                conditionIds[index] = conditionId;
+                conditionDescriptions[index] = description;
+                conditionCount++;
+            }
+            conditionCounts[index]++;
+
+            //Wind speed addition
+            windSpeedSum += windSpeed;
+
+            slotCount++;
+        }
+
+        DaySummary toSummary() {
+            //Final condition based on the most repeated code, the earliest one wins a tie
+            int winner = 0;
+            for (int i = 1; i < conditionCount; i++) {
+                if (conditionCounts[i] > conditionCounts[winner]) {
+                    winner = i;
+                }
+            }
+
+            //The description belongs to the winning code, so both always describe the same weather
+            return new DaySummary(minTemp, maxTemp, humiditySum / slotCount,
+                    windSpeedSum / slotCount, conditionIds[winner],
+                    conditionDescriptions[winner], slotCount);
+        }
+    }
+}
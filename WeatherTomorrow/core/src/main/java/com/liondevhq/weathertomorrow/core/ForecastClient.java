@@ -0,0 +1,224 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.metrics.RequestMetrics;
+import com.liondevhq.weathertomorrow.core.metrics.TimedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Performs the HTTP requests of the OpenWeatherMap forecasts.
+ *
+ * The connection is not disconnected after a request that went fine. Its body is read to
+ * the end and closed instead, so the platform keeps the socket alive and the next city
+ * to the same host skips the TCP and TLS handshakes. Responses are asked for gzip.
+ */
+public final class ForecastClient {
+
+    /** Read timeout of a request in milliseconds */
+    private static final int READ_TIMEOUT = 10000;
+
+    /** Connect timeout of a request in milliseconds */
+    private static final int CONNECT_TIMEOUT = 15000;
+
+    /** Largest rest of a body that is read to keep the connection, instead of dropping it */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /** Size of the buffers used to inflate and drain the bodies */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ForecastClient}
+     * object. This class is only meant to hold static methods.
+     */
+    private ForecastClient() {
+    }
+
+    /**
+     * Make an HTTP request to the given URL and return the {@link ForecastResponse} parsed
+     * straight from the response stream.
+     *
+     * @param defaultUtcOffset offset from UTC in seconds used if the city has no timezone
+     * @throws IOException if the request failed or the response code is not 200
+     * @throws IllegalStateException if the JSON has unexpected structure
+     * @throws NumberFormatException if a number field has unexpected type
+     */
+    public static ForecastResponse fetch(URL url, int defaultUtcOffset) throws IOException {
+        return fetch(url, defaultUtcOffset, new RequestMetrics(url.toString()));
+    }
+
+    /**
+     * Make an HTTP request to the given URL and return the {@link ForecastResponse} parsed
+     * straight from the response stream. The timings and the outcome of the request are put
+     * into the given metrics, whether it succeeds or not.
+     *
+     * @param defaultUtcOffset offset from UTC in seconds used if the city has no timezone
+     * @throws ForecastHttpException if the response code is not 200
+     * @throws IOException if the request failed
+     * @throws IllegalStateException if the JSON has unexpected structure
+     * @throws NumberFormatException if a number field has unexpected type
+     */
+    public static ForecastResponse fetch(URL url, int defaultUtcOffset, RequestMetrics metrics)
+            throws IOException {
+        return fetch(url, defaultUtcOffset, metrics, null);
+    }
+
+    /**
+     * Make an HTTP request like {@link #fetch(URL, int, RequestMetrics)}, which is
+     * disconnected as soon as the given cancellation is canceled.
+     *
+     * @param cancellation cancellation of the refresh, or null if it can't be canceled
+     * @throws InterruptedIOException if the refresh has been canceled
+     */
+    public static ForecastResponse fetch(URL url, int defaultUtcOffset, RequestMetrics metrics,
+                                         FetchCancellation cancellation) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection urlConnection = null;
+        // Whether the connection can go back to the pool, false until its body has been read
+        boolean reusable = false;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            if (cancellation != null) {
+                cancellation.register(urlConnection);
+            }
+            urlConnection.setReadTimeout(READ_TIMEOUT);
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            urlConnection.setRequestMethod("GET");
+            // Setting it by hand turns off the transparent gzip, so the body is inflated below
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            urlConnection.connect();
+            metrics.setConnectNanos(System.nanoTime() - start);
+
+            // If the request was successful (response code 200),
+            // then read the input stream and parse the response.
+            int responseCode = urlConnection.getResponseCode();
+            metrics.setFirstByteNanos(System.nanoTime() - start);
+            metrics.setResponseCode(responseCode);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                metrics.setOutcome(RequestMetrics.Outcome.HTTP_ERROR);
+                long retryAfterSeconds =
+                        parseRetryAfter(urlConnection.getHeaderField("Retry-After"));
+                // Read the error body too, otherwise the connection can't be reused
+                reusable = discard(urlConnection.getErrorStream());
+                throw new ForecastHttpException(responseCode, retryAfterSeconds);
+            }
+
+            // The bytes on the wire are counted under the gzip stream, the parser's
+            // bytes and reads over it
+            long parseStart = System.nanoTime();
+            TimedInputStream wireStream = new TimedInputStream(urlConnection.getInputStream());
+            TimedInputStream inputStream = null;
+            // Time spent reading the gzip header, before the parser's stream exists
+            long headerNanos = 0;
+            try {
+                InputStream bodyStream = wireStream;
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    bodyStream = new GZIPInputStream(wireStream, BUFFER_SIZE);
+                    headerNanos = wireStream.getReadNanos();
+                }
+                inputStream = new TimedInputStream(bodyStream);
+                ForecastResponse response = ForecastParser.parse(inputStream, defaultUtcOffset);
+                metrics.setOutcome(RequestMetrics.Outcome.OK);
+                // The parser stops at the end of the JSON, whatever follows has to be read
+                // before the connection is free. The gzip trailer is read with the decoded
+                // stream, the wire is read to its end before either of them is closed.
+                reusable = drain(inputStream) && drain(wireStream);
+                return response;
+            } catch (IllegalStateException | NumberFormatException e) {
+                metrics.setOutcome(RequestMetrics.Outcome.PARSE_ERROR);
+                throw e;
+            } finally {
+                // The body is parsed while it is read, the parse time is what isn't spent reading
+                long readNanos = inputStream != null
+                        ? headerNanos + inputStream.getReadNanos() : wireStream.getReadNanos();
+                metrics.setBodyNanos(readNanos);
+                metrics.setParseNanos(System.nanoTime() - parseStart - readNanos);
+                metrics.setBytes(wireStream.getBytes());
+                metrics.setDecodedBytes(inputStream != null ? inputStream.getBytes() : 0);
+                // Closing the decoded stream closes the wire under it and frees the inflater
+                if (inputStream != null) {
+                    inputStream.close();
+                } else {
+                    wireStream.close();
+                }
+            }
+        } catch (IOException e) {
+            // The disconnect of a cancel shows up as a broken connection
+            if (cancellation == null || !cancellation.isCanceled()) {
+                throw e;
+            }
+            metrics.setOutcome(RequestMetrics.Outcome.CANCELED);
+            InterruptedIOException canceled = new InterruptedIOException("Refresh canceled");
+            canceled.initCause(e);
+            throw canceled;
+        } finally {
+            if (cancellation != null && urlConnection != null) {
+                cancellation.unregister(urlConnection);
+            }
+            // Only a connection in an unknown state is dropped, the rest stay in the pool
+            if (urlConnection != null && !reusable) {
+                urlConnection.disconnect();
+            }
+            metrics.setTotalNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the seconds of the given Retry-After header, -1 if there is none or it is
+     * a date, which the API doesn't send.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read the rest of the given stream and close it. Returns true if it has been read to
+     * the end, false if it was too long to be worth it or failed.
+     */
+    private static boolean discard(InputStream inputStream) {
+        if (inputStream == null) {
+            return true;
+        }
+        try {
+            return drain(inputStream);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Ignore it, the pool drops a connection it can't use
+            }
+        }
+    }
+
+    /**
+     * Read the rest of the given stream without closing it. Returns true if it has been read
+     * to the end, false if it was too long to be worth it or failed.
+     */
+    private static boolean drain(InputStream inputStream) {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int total = 0;
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                total += count;
+                if (total > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.metrics.MetricsRegistry;
+import com.liondevhq.weathertomorrow.core.metrics.RefreshMetrics;
+import com.liondevhq.weathertomorrow.core.metrics.RequestMetrics;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the forecasts of many cities in parallel with {@link ForecastClient}, within the
+ * quota and retries of a {@link RequestScheduler}.
+ * The timings of every request and of the whole refresh go to
+ * {@link MetricsRegistry#getDefault()}.
+ */
+public final class ForecastFetcher {
+
+    /** Requests per thread that are submitted ahead of the workers */
+    public static final int MAX_QUEUED_PER_THREAD = 2;
+
+    /**
+     * Listener that is told about every city as soon as its request has completed.
+     * It is called on the worker threads, so it has to be thread safe.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every city whose forecast has been fetched and parsed.
+         *
+         * @param index position of the city in the list of URLs
+         */
+        void onForecastFetched(int index, ForecastResponse response);
+
+        /**
+         * Called for every city whose request or parsing failed.
+         *
+         * @param index position of the city in the list of URLs
+         */
+        void onForecastFailed(int index, Exception e);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ForecastFetcher}
+     * object. This class is only meant to hold static methods.
+     */
+    private ForecastFetcher() {
+    }
+
+    /**
+     * Fetch the given URLs using up to poolSize concurrent requests and return the responses
+     * in the same order. A city that fails to load, or has a null URL, is returned as null
+     * without affecting the other cities. If the listener is not null, it gets every city
+     * as soon as it is done.
+     *
+     * @param defaultUtcOffset offset from UTC in seconds used if a city has no timezone
+     */
+    public static List<ForecastResponse> fetchAll(List<URL> urls, int poolSize,
+                                                  int defaultUtcOffset, Listener listener) {
+        return fetchAll(urls, poolSize, defaultUtcOffset, listener,
+                RequestScheduler.getDefault());
+    }
+
+    /**
+     * Fetch the given URLs like {@link #fetchAll(List, int, int, Listener)}, with every
+     * request made through the given scheduler.
+     */
+    public static List<ForecastResponse> fetchAll(List<URL> urls, int poolSize,
+                                                  int defaultUtcOffset, Listener listener,
+                                                  RequestScheduler scheduler) {
+        return fetchAll(urls, poolSize, defaultUtcOffset, listener, scheduler, null);
+    }
+
+    /**
+     * Fetch the given URLs like {@link #fetchAll(List, int, int, Listener, RequestScheduler)}
+     * until the given cancellation is canceled. After that the requests that haven't started
+     * are dropped, the running ones are disconnected and every city that isn't done yet is
+     * returned as null, without telling the listener about it.
+     *
+     * @param cancellation cancellation of the refresh, or null if it can't be canceled
+     */
+    public static List<ForecastResponse> fetchAll(List<URL> urls, int poolSize,
+                                                  int defaultUtcOffset,
+                                                  final Listener listener,
+                                                  RequestScheduler scheduler,
+                                                  FetchCancellation cancellation) {
+        // Every worker writes its own slots, and they are all done when fetchEach returns
+        final ForecastResponse[] responses = new ForecastResponse[urls.size()];
+        fetchEach(urls, poolSize, defaultUtcOffset, new Listener() {
+            @Override
+            public void onForecastFetched(int index, ForecastResponse response) {
+                responses[index] = response;
+                if (listener != null) {
+                    listener.onForecastFetched(index, response);
+                }
+            }
+
+            @Override
+            public void onForecastFailed(int index, Exception e) {
+                if (listener != null) {
+                    listener.onForecastFailed(index, e);
+                }
+            }
+        }, scheduler, cancellation);
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Fetch the given URLs like {@link #fetchAll(List, int, int, Listener, RequestScheduler,
+     * FetchCancellation)}, but only pass the responses to the listener instead of collecting
+     * them, so a refresh of many cities holds just the responses that are being handled.
+     * Only {@link #MAX_QUEUED_PER_THREAD} requests per thread wait for a worker, the calling
+     * thread submits the next one when a request is done. Returns when every request is done,
+     * the refresh has been canceled or the calling thread has been interrupted.
+     *
+     * @param cancellation cancellation of the refresh, or null if it can't be canceled
+     */
+    public static void fetchEach(List<URL> urls, int poolSize,
+                                 final int defaultUtcOffset,
+                                 final Listener listener,
+                                 final RequestScheduler scheduler,
+                                 final FetchCancellation cancellation) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Fetch pool size must be positive: " + poolSize);
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+
+        // Never start more threads than there are cities to fetch
+        int threads = Math.min(poolSize, urls.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // A request takes a slot when it is submitted and gives it back when it is done
+        final Semaphore slots = new Semaphore(threads * MAX_QUEUED_PER_THREAD);
+        final int urlCount = urls.size();
+
+        // On cancel the queued requests are dropped, the waiting ones are interrupted and
+        // the calling thread stops waiting for a slot
+        Runnable stopWorkers = new Runnable() {
+            @Override
+            public void run() {
+                executor.shutdownNow();
+                slots.release(urlCount);
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addOnCancelListener(stopWorkers);
+        }
+
+        try {
+            //For every url submit a separate task, so the cities are fetched in parallel
+            for (int i = 0; i < urls.size(); i++) {
+                slots.acquire();
+                final int index = i;
+                final URL url = urls.get(i);
+                boolean submitted = execute(executor, new Runnable() {
+                    @Override
+                    public void run() {
+                        RequestMetrics metrics = new RequestMetrics(cityOf(url));
+                        try {
+                            fetchOne(index, url, defaultUtcOffset, metrics, listener,
+                                    scheduler, cancellation);
+                        } finally {
+                            MetricsRegistry.getDefault().recordRequest(metrics);
+                            if (metrics.getOutcome() == RequestMetrics.Outcome.OK) {
+                                succeeded.incrementAndGet();
+                            }
+                            bytes.addAndGet(metrics.getBytes());
+                            slots.release();
+                        }
+                    }
+                });
+                // A cancel leaves the rest of the cities unsubmitted
+                if (!submitted) {
+                    break;
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // Keep the interrupted status, so the caller can still notice it
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeOnCancelListener(stopWorkers);
+            }
+            executor.shutdownNow();
+            scheduler.saveQuota();
+            MetricsRegistry.getDefault().recordRefresh(new RefreshMetrics(startedAt,
+                    System.nanoTime() - start, urls.size(), succeeded.get(), bytes.get()));
+        }
+    }
+
+    /**
+     * Run the given task, or return false if the executor has been shut down by a cancel.
+     */
+    private static boolean execute(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fetch a single city and tell the listener about the outcome. An exception thrown by
+     * the listener is not a failure of the fetch, it is passed on to the worker.
+     */
+    private static ForecastResponse fetchOne(int index, URL url, int defaultUtcOffset,
+                                             RequestMetrics metrics, Listener listener,
+                                             RequestScheduler scheduler,
+                                             FetchCancellation cancellation) {
+        ForecastResponse response;
+        try {
+            if (url == null) {
+                throw new MalformedURLException("No URL for the city at " + index);
+            }
+            response = scheduler.fetch(url, defaultUtcOffset, metrics, cancellation);
+        } catch (IOException | RuntimeException e) {
+            // Parse errors come as IllegalStateException or NumberFormatException
+            notifyFailed(index, e, metrics, listener, cancellation);
+            return null;
+        } catch (InterruptedException e) {
+            // The refresh is being shut down, keep the interrupted status for the pool
+            Thread.currentThread().interrupt();
+            notifyFailed(index, e, metrics, listener, cancellation);
+            return null;
+        }
+
+        if (listener != null) {
+            listener.onForecastFetched(index, response);
+        }
+        return response;
+    }
+
+    /**
+     * Tell the listener about a city that failed, unless the refresh has been canceled and
+     * the failure is just the cancel.
+     */
+    private static void notifyFailed(int index, Exception e, RequestMetrics metrics,
+                                     Listener listener, FetchCancellation cancellation) {
+        if (cancellation != null && cancellation.isCanceled()) {
+            metrics.setOutcome(RequestMetrics.Outcome.CANCELED);
+        } else if (listener != null) {
+            listener.onForecastFailed(index, e);
+        }
+    }
+
+    /**
+     * Return the city of the given request for the metrics, its OpenWeatherMap id
+     * or name from the query, or the whole URL if the query has neither.
+     */
+    private static String cityOf(URL url) {
+        if (url == null) {
+            return "no url";
+        }
+        String query = url.getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("id=") || parameter.startsWith("q=")) {
+                    try {
+                        return URLDecoder.decode(parameter, "UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        return parameter;
+                    }
+                }
+            }
+        }
+        return url.toString();
+    }
+}
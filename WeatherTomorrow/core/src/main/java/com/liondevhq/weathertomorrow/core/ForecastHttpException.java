@@ -0,0 +1,46 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a forecast request with a code other than 200.
+ */
+public class ForecastHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** HTTP response code */
+    private final int mResponseCode;
+
+    /** Seconds from the Retry-After header, -1 if the server didn't send it */
+    private final long mRetryAfterSeconds;
+
+    public ForecastHttpException(int responseCode, long retryAfterSeconds) {
+        super("Error response code: " + responseCode);
+        mResponseCode = responseCode;
+        mRetryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Returns the HTTP response code.
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * Returns the seconds the server asked to wait before the next request,
+     * -1 if it didn't say.
+     */
+    public long getRetryAfterSeconds() {
+        return mRetryAfterSeconds;
+    }
+
+    /**
+     * Returns true if the same request may succeed later: the quota is exceeded (429)
+     * or the server failed (5xx).
+     */
+    public boolean isTransient() {
+        return mResponseCode == 429 || mResponseCode >= 500;
+    }
+}
@@ -0,0 +1,166 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming parser of the OpenWeatherMap 5 day / 3 hour forecast responses.
+ */
+public final class ForecastParser {
+
+    /** Charset of the responses */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ForecastParser}
+     * object. This class is only meant to hold static methods.
+     */
+    private ForecastParser() {
+    }
+
+    /**
+     * Parse the given JSON response stream while it is read. Only the city and the fields of
+     * the intervals that are summed up are read, everything else is skipped without being
+     * allocated. The stream is closed when the method returns.
+     *
+     * @param inputStream response body
+     * @param defaultUtcOffset offset from UTC in seconds used if the city has no timezone,
+     *                         older responses don't have it
+     * @throws IllegalStateException if the JSON has unexpected structure
+     * @throws NumberFormatException if a number field has unexpected type
+     */
+    public static ForecastResponse parse(InputStream inputStream, int defaultUtcOffset)
+            throws IOException {
+        ForecastAggregator aggregator = new ForecastAggregator();
+        int cityId = 0;
+        String cityName = null;
+        String cityCountry = null;
+        int utcOffset = defaultUtcOffset;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("city")) {
+                    //Get the city object from JSON
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String cityField = reader.nextName();
+                        if (cityField.equals("id")) {
+                            cityId = reader.nextInt();
+                        } else if (cityField.equals("name")) {
+                            cityName = reader.nextString();
+                        } else if (cityField.equals("country")) {
+                            cityCountry = reader.nextString();
+                        } else if (cityField.equals("timezone")) {
+                            utcOffset = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (name.equals("list")) {
+                    // The array of weather 3-hours intervals, the days are told apart later,
+                    // when the timezone of the city is known
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readSlot(reader, aggregator);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        if (cityName == null || cityCountry == null) {
+            throw new IllegalStateException("No city in the forecasts JSON results");
+        }
+        return new ForecastResponse(cityId, cityName, cityCountry, utcOffset, aggregator);
+    }
+
+    /**
+     * Read a single 3-hours interval from the "list" array into the aggregator.
+     */
+    private static void readSlot(JsonReader reader, ForecastAggregator aggregator)
+            throws IOException {
+        long time = -1;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double humidity = Double.NaN;
+        double windSpeed = Double.NaN;
+        int id = -1;
+        String description = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("dt")) {
+                time = reader.nextLong();
+            } else if (name.equals("main")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainField = reader.nextName();
+                    if (mainField.equals("temp_min")) {
+                        min = reader.nextDouble();
+                    } else if (mainField.equals("temp_max")) {
+                        max = reader.nextDouble();
+                    } else if (mainField.equals("humidity")) {
+                        humidity = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (name.equals("weather")) {
+                // Only the zero object of the "weather" array describes the interval
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherField = reader.nextName();
+                        if (weatherField.equals("id")) {
+                            id = reader.nextInt();
+                        } else if (weatherField.equals("description")) {
+                            description = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (name.equals("wind")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("speed")) {
+                        windSpeed = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (time < 0 || Double.isNaN(min) || Double.isNaN(max) || Double.isNaN(humidity)
+                || Double.isNaN(windSpeed) || id < 0 || description == null) {
+            throw new IllegalStateException("Incomplete interval in the forecasts JSON results");
+        }
+        aggregator.addSlot(time, min, max, humidity, id, description, windSpeed);
+    }
+}
@@ -0,0 +1,79 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+
+/**
+ * City and 3-hours intervals of a single OpenWeatherMap forecast response.
+ */
+public final class ForecastResponse {
+
+    /** OpenWeatherMap id of the city */
+    private final int mCityId;
+
+    /** Name of the city */
+    private final String mCityName;
+
+    /** Country code of the city */
+    private final String mCityCountry;
+
+    /** Offset of the city's local time from UTC in seconds */
+    private final int mUtcOffset;
+
+    /** Intervals of the response */
+    private final ForecastAggregator mAggregator;
+
+    ForecastResponse(int cityId, String cityName, String cityCountry, int utcOffset,
+                     ForecastAggregator aggregator) {
+        mCityId = cityId;
+        mCityName = cityName;
+        mCityCountry = cityCountry;
+        mUtcOffset = utcOffset;
+        mAggregator = aggregator;
+    }
+
+    /**
+     * Returns the OpenWeatherMap id of the city.
+     */
+    public int getCityId() {
+        return mCityId;
+    }
+
+    /**
+     * Returns the name of the city.
+     */
+    public String getCityName() {
+        return mCityName;
+    }
+
+    /**
+     * Returns the country code of the city.
+     */
+    public String getCityCountry() {
+        return mCityCountry;
+    }
+
+    /**
+     * Returns the offset of the city's local time from UTC in seconds.
+     */
+    public int getUtcOffset() {
+        return mUtcOffset;
+    }
+
+    /**
+     * Returns the intervals of the response.
+     */
+    public ForecastAggregator getAggregator() {
+        return mAggregator;
+    }
+
+    /**
+     * Sum up the given day in the local time of the city, 0 is today and 1 is tomorrow.
+     * Return null if the response has no intervals of that day.
+     *
+     * @param now current time in seconds since epoch
+     * @param day number of the day counted from today
+     */
+    public DaySummary getDay(long now, int day) {
+        return mAggregator.summarize(now, mUtcOffset, day + 1)[day];
+    }
+}
@@ -0,0 +1,17 @@
+package com.liondevhq.weathertomorrow.core;
+
+/**
+ * Keeps the call accounting of a {@link RateLimiter} across process restarts.
+ */
+public interface QuotaStore {
+
+    /**
+     * Returns the last saved state, or null if nothing has been saved yet.
+     */
+    RateLimiter.State load();
+
+    /**
+     * Save the given state. Called from the request threads, at most about once a second.
+     */
+    void save(RateLimiter.State state);
+}
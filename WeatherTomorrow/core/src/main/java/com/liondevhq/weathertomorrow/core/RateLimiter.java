@@ -0,0 +1,270 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that keeps the requests within the calls per minute of the API key.
+ * Tokens come back at a steady rate up to a small burst. A caller that finds the bucket
+ * empty reserves the next token and sleeps until it is due, so the waiting callers are
+ * served in order and the bucket never lends more than it has.
+ *
+ * The state and the calls of the current day are saved to a {@link QuotaStore}, so the
+ * quota spent right before a restart is still accounted for after it. The saved state is
+ * loaded when the bucket is first used, on a request thread, not when it is created.
+ */
+public final class RateLimiter {
+
+    /** Calls per minute of the free OpenWeatherMap plan */
+    public static final int FREE_PLAN_CALLS_PER_MINUTE = 60;
+
+    /** The state is saved at most this often while requests are made */
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * State of the bucket that is saved.
+     */
+    public static final class State {
+
+        /** Tokens in the bucket, negative if some are reserved */
+        public final double tokens;
+
+        /** Wall clock time the tokens were counted at, in milliseconds since epoch */
+        public final long savedAt;
+
+        /** Day the calls are counted for, in days since epoch in UTC */
+        public final long day;
+
+        /** Calls made on that day */
+        public final long calls;
+
+        public State(double tokens, long savedAt, long day, long calls) {
+            this.tokens = tokens;
+            this.savedAt = savedAt;
+            this.day = day;
+            this.calls = calls;
+        }
+    }
+
+    /** Most tokens the bucket holds */
+    private final int mCapacity;
+
+    /** Tokens added per nanosecond */
+    private final double mTokensPerNano;
+
+    /** Where the state is saved, null if it isn't */
+    private final QuotaStore mStore;
+
+    /** Time source of the refills and the waits */
+    private final Clock mClock;
+
+    /** Tokens in the bucket, negative if some are reserved */
+    private double mTokens;
+
+    /** Time the tokens were counted at, from {@link Clock#nanoTime()} */
+    private long mRefilledAt;
+
+    /** No token is handed out before this time, from {@link Clock#nanoTime()} */
+    private long mPausedUntil;
+
+    /** Day the calls are counted for, in days since epoch in UTC */
+    private long mDay;
+
+    /** Calls made on {@link #mDay} */
+    private long mCalls;
+
+    /** Time of the last save, from {@link Clock#nanoTime()} */
+    private long mSavedAt;
+
+    /** True once the state saved in the store has been loaded */
+    private boolean mRestored;
+
+    /**
+     * Create a bucket that holds up to capacity tokens and refills callsPerMinute tokens
+     * a minute. It starts with the state saved in the store, or full if there is none.
+     * The store isn't read until the bucket is first used.
+     *
+     * @param store where the state is saved, or null to keep it in memory only
+     */
+    public RateLimiter(int callsPerMinute, int capacity, QuotaStore store) {
+        this(callsPerMinute, capacity, store, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a bucket like {@link #RateLimiter(int, int, QuotaStore)} that takes the time
+     * from the given clock.
+     */
+    RateLimiter(int callsPerMinute, int capacity, QuotaStore store, Clock clock) {
+        if (callsPerMinute < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Rate and capacity must be positive: "
+                    + callsPerMinute + ", " + capacity);
+        }
+        mCapacity = capacity;
+        mTokensPerNano = callsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        mStore = store;
+        mClock = clock;
+        mRefilledAt = clock.nanoTime();
+        mPausedUntil = mRefilledAt;
+        mSavedAt = mRefilledAt;
+        mDay = TimeUnit.MILLISECONDS.toDays(clock.currentTimeMillis());
+        mTokens = capacity;
+    }
+
+    /**
+     * Create a bucket for an API key with the given calls per minute. The burst is taken out
+     * of the rate, so no minute ever sees more calls than the quota, however it is counted.
+     */
+    public static RateLimiter forQuota(int callsPerMinute, QuotaStore store) {
+        return forQuota(callsPerMinute, store, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a bucket like {@link #forQuota(int, QuotaStore)} that takes the time from the
+     * given clock.
+     */
+    static RateLimiter forQuota(int callsPerMinute, QuotaStore store, Clock clock) {
+        int burst = Math.max(callsPerMinute / 10, 1);
+        return new RateLimiter(Math.max(callsPerMinute - burst, 1), burst, store, clock);
+    }
+
+    /**
+     * Take a token, sleeping until one is available. Returns the time slept in nanoseconds.
+     *
+     * @throws InterruptedException if the thread is interrupted while it waits, the token
+     *                              is given back and the call isn't counted then
+     */
+    public long acquire() throws InterruptedException {
+        long waitNanos;
+        long day;
+        boolean save;
+        synchronized (this) {
+            long now = mClock.nanoTime();
+            restore(now);
+            refill(now);
+            // Reserve the token even if it isn't there yet, the callers behind wait longer
+            mTokens -= 1;
+            waitNanos = mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens / mTokensPerNano);
+            waitNanos = Math.max(waitNanos, mPausedUntil - now);
+            countCall();
+            day = mDay;
+            save = mStore != null && now - mSavedAt >= SAVE_INTERVAL_NANOS;
+            if (save) {
+                mSavedAt = now;
+            }
+        }
+        if (save) {
+            save();
+        }
+        if (waitNanos > 0) {
+            try {
+                mClock.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                // The request is never sent, e.g. the refresh was canceled or ran out of time
+                release(day);
+                throw e;
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Give back a token that was taken for a request that isn't sent, and don't count its
+     * call on the given day.
+     */
+    private synchronized void release(long day) {
+        refill(mClock.nanoTime());
+        mTokens = Math.min(mTokens + 1, mCapacity);
+        if (mDay == day && mCalls > 0) {
+            mCalls--;
+        }
+    }
+
+    /**
+     * Stop handing out tokens for the given time and empty the bucket, because the server
+     * said the quota is used up. The reservations made so far are kept.
+     */
+    public synchronized void pause(long millis) {
+        long now = mClock.nanoTime();
+        restore(now);
+        refill(now);
+        mTokens = Math.min(mTokens, 0);
+        mPausedUntil = Math.max(mPausedUntil, now + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Returns the number of calls made today, in UTC, including the ones before a restart.
+     */
+    public synchronized long getCallsToday() {
+        restore(mClock.nanoTime());
+        rollOver(TimeUnit.MILLISECONDS.toDays(mClock.currentTimeMillis()));
+        return mCalls;
+    }
+
+    /**
+     * Save the current state to the store, if there is one.
+     */
+    public void save() {
+        if (mStore == null) {
+            return;
+        }
+        State state;
+        synchronized (this) {
+            long now = mClock.nanoTime();
+            // Never overwrite the saved state with one that doesn't account for it
+            restore(now);
+            refill(now);
+            state = new State(mTokens, mClock.currentTimeMillis(), mDay, mCalls);
+        }
+        mStore.save(state);
+    }
+
+    /**
+     * Load the state saved in the store on the first use of the bucket. The tokens that came
+     * back since it was saved are added up to now. Must be called while holding the lock.
+     */
+    private void restore(long now) {
+        if (mRestored) {
+            return;
+        }
+        mRestored = true;
+        State saved = mStore != null ? mStore.load() : null;
+        if (saved == null) {
+            return;
+        }
+
+        // The tokens came back while the process was gone too, but not if the clock went back
+        long nowMillis = mClock.currentTimeMillis();
+        long awayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(nowMillis - saved.savedAt, 0));
+        mTokens = Math.min(saved.tokens + awayNanos * mTokensPerNano, mCapacity);
+        mRefilledAt = now;
+        mDay = saved.day;
+        mCalls = saved.calls;
+        rollOver(TimeUnit.MILLISECONDS.toDays(nowMillis));
+    }
+
+    /**
+     * Add the tokens that came back since the last refill.
+     * Must be called while holding the lock.
+     */
+    private void refill(long now) {
+        mTokens = Math.min(mTokens + (now - mRefilledAt) * mTokensPerNano, mCapacity);
+        mRefilledAt = now;
+    }
+
+    /**
+     * Count a call on the current day. Must be called while holding the lock.
+     */
+    private void countCall() {
+        rollOver(TimeUnit.MILLISECONDS.toDays(mClock.currentTimeMillis()));
+        mCalls++;
+    }
+
+    /**
+     * Start counting from zero if the day has changed. Must be called while holding the lock.
+     */
+    private void rollOver(long day) {
+        if (day != mDay) {
+            mDay = day;
+            mCalls = 0;
+        }
+    }
+}
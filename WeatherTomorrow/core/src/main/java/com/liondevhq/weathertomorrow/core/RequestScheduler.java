@@ -0,0 +1,168 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.metrics.RequestMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the forecast requests of {@link ForecastClient} within the quota of the API key.
+ * Every attempt takes a token from the {@link RateLimiter}, if there is one. A request that
+ * is answered with 429 or 5xx is tried again after an exponential backoff with full jitter,
+ * or after the Retry-After of the server if that is longer. A 429 also pauses the limiter,
+ * so the other requests of the refresh wait with it instead of being rejected too.
+ */
+public final class RequestScheduler {
+
+    /** Attempts of a request when the scheduler is not configured */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** Backoff before the second attempt, doubled for every further one */
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000;
+
+    /** Longest backoff between two attempts */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
+
+    /** Scheduler used by {@link ForecastFetcher} unless it is given another one */
+    private static volatile RequestScheduler sDefault =
+            new RequestScheduler(null, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MILLIS,
+                    DEFAULT_MAX_BACKOFF_MILLIS);
+
+    /** Limiter every attempt takes a token from, null for no limit */
+    private final RateLimiter mRateLimiter;
+
+    /** Most attempts of a single request */
+    private final int mMaxAttempts;
+
+    /** Backoff before the second attempt */
+    private final long mBaseBackoffMillis;
+
+    /** Longest backoff between two attempts */
+    private final long mMaxBackoffMillis;
+
+    /** Time source of the backoffs */
+    private final Clock mClock;
+
+    /**
+     * @param rateLimiter limiter every attempt takes a token from, or null for no limit
+     */
+    public RequestScheduler(RateLimiter rateLimiter, int maxAttempts, long baseBackoffMillis,
+                            long maxBackoffMillis) {
+        this(rateLimiter, maxAttempts, baseBackoffMillis, maxBackoffMillis, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a scheduler like {@link #RequestScheduler(RateLimiter, int, long, long)} that
+     * sleeps the backoffs on the given clock.
+     */
+    RequestScheduler(RateLimiter rateLimiter, int maxAttempts, long baseBackoffMillis,
+                     long maxBackoffMillis, Clock clock) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Attempts must be positive: " + maxAttempts);
+        }
+        mRateLimiter = rateLimiter;
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMillis = baseBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the scheduler shared by the whole process. Without a call to
+     * {@link #setDefault(RequestScheduler)} it retries but doesn't limit the rate.
+     */
+    public static RequestScheduler getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Replace the scheduler shared by the whole process, e.g. with one sized to the quota
+     * of the API key when the app starts.
+     */
+    public static void setDefault(RequestScheduler scheduler) {
+        sDefault = scheduler;
+    }
+
+    /**
+     * Returns the limiter of the scheduler, null if it doesn't limit the rate.
+     */
+    public RateLimiter getRateLimiter() {
+        return mRateLimiter;
+    }
+
+    /**
+     * Fetch the forecast of the given URL, waiting for the quota and trying again on
+     * transient errors. The metrics get the timings of the last attempt, the number of
+     * attempts and the time spent waiting.
+     *
+     * @param defaultUtcOffset offset from UTC in seconds used if the city has no timezone
+     * @throws IOException if the last attempt failed or the error is not transient
+     * @throws InterruptedException if the thread is interrupted while it waits
+     * @throws IllegalStateException if the JSON has unexpected structure
+     * @throws NumberFormatException if a number field has unexpected type
+     */
+    public ForecastResponse fetch(URL url, int defaultUtcOffset, RequestMetrics metrics)
+            throws IOException, InterruptedException {
+        return fetch(url, defaultUtcOffset, metrics, null);
+    }
+
+    /**
+     * Fetch the forecast like {@link #fetch(URL, int, RequestMetrics)}, giving up as soon as
+     * the given cancellation is canceled.
+     *
+     * @param cancellation cancellation of the refresh, or null if it can't be canceled
+     * @throws InterruptedIOException if the refresh has been canceled
+     */
+    public ForecastResponse fetch(URL url, int defaultUtcOffset, RequestMetrics metrics,
+                                  FetchCancellation cancellation)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            if (mRateLimiter != null) {
+                metrics.addWaitNanos(mRateLimiter.acquire());
+            }
+            // Don't spend the token on a request nobody waits for anymore
+            if (cancellation != null) {
+                cancellation.throwIfCanceled();
+            }
+            metrics.startAttempt();
+            try {
+                return ForecastClient.fetch(url, defaultUtcOffset, metrics, cancellation);
+            } catch (ForecastHttpException e) {
+                if (!e.isTransient() || attempt >= mMaxAttempts) {
+                    throw e;
+                }
+
+                long backoffMillis = getBackoffMillis(attempt, e.getRetryAfterSeconds());
+                if (e.getResponseCode() == 429 && mRateLimiter != null) {
+                    // Our count of the quota was off, everyone waits until the server is ready
+                    mRateLimiter.pause(backoffMillis);
+                } else {
+                    mClock.sleep(TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                    metrics.addWaitNanos(TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the time to wait after the given failed attempt: a random time up to the
+     * exponential backoff, but not less than the server asked for.
+     */
+    long getBackoffMillis(int attempt, long retryAfterSeconds) {
+        long ceiling = Math.min(mBaseBackoffMillis << Math.min(attempt - 1, 30), mMaxBackoffMillis);
+        long backoff = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(backoff, TimeUnit.SECONDS.toMillis(Math.max(retryAfterSeconds, 0)));
+    }
+
+    /**
+     * Save the call accounting of the limiter, e.g. at the end of a refresh.
+     */
+    public void saveQuota() {
+        if (mRateLimiter != null) {
+            mRateLimiter.save();
+        }
+    }
+}
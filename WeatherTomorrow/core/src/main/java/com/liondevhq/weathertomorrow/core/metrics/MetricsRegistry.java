@@ -0,0 +1,224 @@
+package com.liondevhq.weathertomorrow.core.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory histograms of the forecast requests and refreshes of the process.
+ * Recording is lock-free for the histograms, only the short lists of the last requests
+ * and refreshes are guarded by a lock.
+ */
+public final class MetricsRegistry {
+
+    /** Number of cities whose last request is kept */
+    private static final int LAST_REQUESTS_SIZE = 50;
+
+    /** Number of last refreshes kept */
+    private static final int LAST_REFRESHES_SIZE = 20;
+
+    /** Registry shared by the whole process */
+    private static final MetricsRegistry sDefault = new MetricsRegistry();
+
+    private final Histogram mConnect = new Histogram("connect", "ms");
+    private final Histogram mFirstByte = new Histogram("time to first byte", "ms");
+    private final Histogram mBody = new Histogram("body read", "ms");
+    private final Histogram mParse = new Histogram("parse", "ms");
+    private final Histogram mRequest = new Histogram("request", "ms");
+    private final Histogram mBytes = new Histogram("body size", "bytes");
+    private final Histogram mDecodedBytes = new Histogram("decoded size", "bytes");
+    private final Histogram mRefresh = new Histogram("refresh", "ms");
+    private final Histogram mWait = new Histogram("quota wait", "ms");
+
+    /** Number of requests of every {@link RequestMetrics.Outcome} */
+    private final AtomicLongArray mOutcomes =
+            new AtomicLongArray(RequestMetrics.Outcome.values().length);
+
+    /** Number of requests sent again after a transient error */
+    private final AtomicLong mRetries = new AtomicLong();
+
+    /** Last request of every city, the least recently requested city is dropped first */
+    private final LinkedHashMap<String, RequestMetrics> mLastRequests =
+            new LinkedHashMap<String, RequestMetrics>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RequestMetrics> eldest) {
+                    return size() > LAST_REQUESTS_SIZE;
+                }
+            };
+
+    /** Last refreshes, the newest one first */
+    private final ArrayDeque<RefreshMetrics> mLastRefreshes = new ArrayDeque<>();
+
+    /**
+     * Returns the registry shared by the whole process.
+     */
+    public static MetricsRegistry getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Add the timings of a finished request.
+     */
+    public void recordRequest(RequestMetrics metrics) {
+        mOutcomes.incrementAndGet(metrics.getOutcome().ordinal());
+        mRequest.record(toMicros(metrics.getTotalNanos()));
+        mWait.record(toMicros(metrics.getWaitNanos()));
+        if (metrics.getAttempts() > 1) {
+            mRetries.addAndGet(metrics.getAttempts() - 1);
+        }
+        if (metrics.getResponseCode() != -1) {
+            mConnect.record(toMicros(metrics.getConnectNanos()));
+            mFirstByte.record(toMicros(metrics.getFirstByteNanos()));
+        }
+        if (metrics.getBytes() > 0) {
+            mBody.record(toMicros(metrics.getBodyNanos()));
+            mParse.record(toMicros(metrics.getParseNanos()));
+            mBytes.record(metrics.getBytes());
+            mDecodedBytes.record(metrics.getDecodedBytes());
+        }
+        synchronized (mLastRequests) {
+            mLastRequests.put(metrics.getCity(), metrics);
+        }
+    }
+
+    /**
+     * Add the summary of a finished refresh.
+     */
+    public void recordRefresh(RefreshMetrics metrics) {
+        mRefresh.record(toMicros(metrics.getDurationNanos()));
+        synchronized (mLastRefreshes) {
+            mLastRefreshes.addFirst(metrics);
+            if (mLastRefreshes.size() > LAST_REFRESHES_SIZE) {
+                mLastRefreshes.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests that ended with the given outcome.
+     */
+    public long getOutcomeCount(RequestMetrics.Outcome outcome) {
+        return mOutcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * Returns the number of requests sent again after a transient error.
+     */
+    public long getRetryCount() {
+        return mRetries.get();
+    }
+
+    /**
+     * Returns the histograms of the registry. The timings are in microseconds.
+     */
+    public List<Histogram> getHistograms() {
+        List<Histogram> histograms = new ArrayList<>();
+        histograms.add(mRefresh);
+        histograms.add(mRequest);
+        histograms.add(mWait);
+        histograms.add(mConnect);
+        histograms.add(mFirstByte);
+        histograms.add(mBody);
+        histograms.add(mParse);
+        histograms.add(mBytes);
+        histograms.add(mDecodedBytes);
+        return histograms;
+    }
+
+    /**
+     * Forget everything recorded.
+     */
+    public void reset() {
+        for (Histogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+        for (int i = 0; i < mOutcomes.length(); i++) {
+            mOutcomes.set(i, 0);
+        }
+        mRetries.set(0);
+        synchronized (mLastRequests) {
+            mLastRequests.clear();
+        }
+        synchronized (mLastRefreshes) {
+            mLastRefreshes.clear();
+        }
+    }
+
+    /**
+     * Returns the plain text report of everything recorded.
+     */
+    public String report() {
+        StringWriter report = new StringWriter();
+        dump(new PrintWriter(report));
+        return report.toString();
+    }
+
+    /**
+     * Write the plain text report of everything recorded.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%-20s %7s %9s %9s %9s %9s %9s",
+                "", "count", "mean", "p50", "p95", "p99", "max"));
+        for (Histogram histogram : getHistograms()) {
+            // Timings are kept in microseconds and shown in milliseconds
+            boolean timing = "ms".equals(histogram.getUnit());
+            double scale = timing ? 1000.0 : 1.0;
+            writer.println(String.format(Locale.US, "%-20s %7d %9.1f %9.1f %9.1f %9.1f %9.1f %s",
+                    histogram.getName(), histogram.getCount(),
+                    histogram.getMean() / scale,
+                    histogram.getPercentile(50) / scale,
+                    histogram.getPercentile(95) / scale,
+                    histogram.getPercentile(99) / scale,
+                    histogram.getMax() / scale,
+                    histogram.getUnit()));
+        }
+
+        writer.println();
+        writer.print("Outcomes:");
+        for (RequestMetrics.Outcome outcome : RequestMetrics.Outcome.values()) {
+            writer.print(" " + outcome + "=" + getOutcomeCount(outcome));
+        }
+        writer.println(" retries=" + getRetryCount());
+
+        writer.println();
+        writer.println("Last refreshes:");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+        synchronized (mLastRefreshes) {
+            for (RefreshMetrics refresh : mLastRefreshes) {
+                writer.println(String.format(Locale.US, "  %s %8.1f ms %4d/%-4d cities %8d bytes",
+                        timeFormat.format(new Date(refresh.getStartedAt())),
+                        refresh.getDurationNanos() / 1e6,
+                        refresh.getSucceededCount(), refresh.getCityCount(), refresh.getBytes()));
+            }
+        }
+
+        writer.println();
+        writer.println("Last request of every city"
+                + " (connect/first byte/body/parse ms, wire/decoded bytes):");
+        synchronized (mLastRequests) {
+            for (RequestMetrics request : mLastRequests.values()) {
+                writer.println(String.format(Locale.US,
+                        "  %-24s %-11s %4d %7.1f %7.1f %7.1f %7.1f %7d/%-7d bytes",
+                        request.getCity(), request.getOutcome(), request.getResponseCode(),
+                        request.getConnectNanos() / 1e6, request.getFirstByteNanos() / 1e6,
+                        request.getBodyNanos() / 1e6, request.getParseNanos() / 1e6,
+                        request.getBytes(), request.getDecodedBytes()));
+            }
+        }
+        writer.flush();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,66 @@
+package com.liondevhq.weathertomorrow.core.metrics;
+
+/**
+ * Summary of a refresh of many cities.
+ */
+public final class RefreshMetrics {
+
+    /** Wall clock time the refresh started at in milliseconds since epoch */
+    private final long mStartedAt;
+
+    /** Time of the whole refresh in nanoseconds */
+    private final long mDurationNanos;
+
+    /** Number of cities requested */
+    private final int mCityCount;
+
+    /** Number of cities fetched and parsed */
+    private final int mSucceededCount;
+
+    /** Body bytes received for all cities */
+    private final long mBytes;
+
+    public RefreshMetrics(long startedAt, long durationNanos, int cityCount, int succeededCount,
+                          long bytes) {
+        mStartedAt = startedAt;
+        mDurationNanos = durationNanos;
+        mCityCount = cityCount;
+        mSucceededCount = succeededCount;
+        mBytes = bytes;
+    }
+
+    /**
+     * Returns the wall clock time the refresh started at in milliseconds since epoch.
+     */
+    public long getStartedAt() {
+        return mStartedAt;
+    }
+
+    /**
+     * Returns the time of the whole refresh in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * Returns the number of cities requested.
+     */
+    public int getCityCount() {
+        return mCityCount;
+    }
+
+    /**
+     * Returns the number of cities fetched and parsed.
+     */
+    public int getSucceededCount() {
+        return mSucceededCount;
+    }
+
+    /**
+     * Returns the body bytes received for all cities.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+}
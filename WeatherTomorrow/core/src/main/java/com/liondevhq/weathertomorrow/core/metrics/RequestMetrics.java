@@ -0,0 +1,186 @@
+package com.liondevhq.weathertomorrow.core.metrics;
+
+/**
+ * Timings of a single forecast request. The body is parsed while it is read, so the body
+ * time is the time spent waiting for the network inside the parser and the parse time
+ * is the rest of the time the parser ran.
+ */
+public final class RequestMetrics {
+
+    /**
+     * How the request ended.
+     */
+    public enum Outcome {
+        /** Fetched and parsed */
+        OK,
+        /** The server answered with a code other than 200 */
+        HTTP_ERROR,
+        /** The connection failed or timed out */
+        IO_ERROR,
+        /** The response could not be parsed */
+        PARSE_ERROR,
+        /** The refresh was canceled before the request was done */
+        CANCELED
+    }
+
+    /** City the request was made for, the id or the name of the query */
+    private final String mCity;
+
+    private long mConnectNanos;
+    private long mFirstByteNanos;
+    private long mBodyNanos;
+    private long mParseNanos;
+    private long mTotalNanos;
+    private long mBytes;
+    private long mDecodedBytes;
+    private int mResponseCode = -1;
+    private Outcome mOutcome = Outcome.IO_ERROR;
+    private int mAttempts;
+    private long mWaitNanos;
+
+    public RequestMetrics(String city) {
+        mCity = city;
+    }
+
+    /**
+     * Returns the city the request was made for.
+     */
+    public String getCity() {
+        return mCity;
+    }
+
+    /**
+     * Returns the time it took to connect in nanoseconds.
+     */
+    public long getConnectNanos() {
+        return mConnectNanos;
+    }
+
+    /**
+     * Returns the time from the start of the request until the response code came
+     * in nanoseconds.
+     */
+    public long getFirstByteNanos() {
+        return mFirstByteNanos;
+    }
+
+    /**
+     * Returns the time spent reading the body in nanoseconds.
+     */
+    public long getBodyNanos() {
+        return mBodyNanos;
+    }
+
+    /**
+     * Returns the time spent parsing the body in nanoseconds.
+     */
+    public long getParseNanos() {
+        return mParseNanos;
+    }
+
+    /**
+     * Returns the time of the whole request in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * Returns the number of body bytes received, compressed if the server sent gzip.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the number of body bytes after the gzip has been inflated.
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * Returns the HTTP response code, -1 if there was no response.
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * Returns how the request ended.
+     */
+    public Outcome getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * Returns the number of times the request has been sent, 0 if it never was.
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * Returns the time spent waiting for the quota and between the attempts in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return mWaitNanos;
+    }
+
+    /**
+     * Forget the timings of the previous attempt before the request is sent again.
+     * The waiting time adds up over all the attempts.
+     */
+    public void startAttempt() {
+        mAttempts++;
+        mConnectNanos = 0;
+        mFirstByteNanos = 0;
+        mBodyNanos = 0;
+        mParseNanos = 0;
+        mTotalNanos = 0;
+        mBytes = 0;
+        mDecodedBytes = 0;
+        mResponseCode = -1;
+        mOutcome = Outcome.IO_ERROR;
+    }
+
+    public void addWaitNanos(long waitNanos) {
+        mWaitNanos += waitNanos;
+    }
+
+    public void setConnectNanos(long connectNanos) {
+        mConnectNanos = connectNanos;
+    }
+
+    public void setFirstByteNanos(long firstByteNanos) {
+        mFirstByteNanos = firstByteNanos;
+    }
+
+    public void setBodyNanos(long bodyNanos) {
+        mBodyNanos = bodyNanos;
+    }
+
+    public void setParseNanos(long parseNanos) {
+        mParseNanos = parseNanos;
+    }
+
+    public void setTotalNanos(long totalNanos) {
+        mTotalNanos = totalNanos;
+    }
+
+    public void setBytes(long bytes) {
+        mBytes = bytes;
+    }
+
+    public void setDecodedBytes(long decodedBytes) {
+        mDecodedBytes = decodedBytes;
+    }
+
+    public void setResponseCode(int responseCode) {
+        mResponseCode = responseCode;
+    }
+
+    public void setOutcome(Outcome outcome) {
+        mOutcome = outcome;
+    }
+}
@@ -0,0 +1,75 @@
+package com.liondevhq.weathertomorrow.core.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream and the time spent waiting for them.
+ */
+public final class TimedInputStream extends FilterInputStream {
+
+    /** Bytes read so far */
+    private long mBytes;
+
+    /** Time spent in the reads of the wrapped stream in nanoseconds */
+    private long mReadNanos;
+
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the time spent in the reads of the wrapped stream in nanoseconds.
+     */
+    public long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            int value = super.read();
+            if (value != -1) {
+                mBytes++;
+            }
+            return value;
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mBytes += count;
+            }
+            return count;
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        try {
+            long skipped = super.skip(n);
+            mBytes += skipped;
+            return skipped;
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+}
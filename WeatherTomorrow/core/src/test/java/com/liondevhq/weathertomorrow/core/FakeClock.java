@@ -0,0 +1,64 @@
+package com.liondevhq.weathertomorrow.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock of the tests. It only moves when it is told to or when something sleeps on it,
+ * and it keeps the total time slept.
+ */
+final class FakeClock implements Clock {
+
+    /** Time of {@link #nanoTime()} */
+    private long mNanos = TimeUnit.DAYS.toNanos(1);
+
+    /** Wall clock time in milliseconds since epoch, noon of 2017-01-31 in UTC */
+    private long mMillis = 1485864000000L;
+
+    /** Total time slept in nanoseconds */
+    private long mSleptNanos;
+
+    /** True if the next sleep is interrupted right away */
+    private boolean mInterruptNextSleep;
+
+    @Override
+    public synchronized long nanoTime() {
+        return mNanos;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return mMillis;
+    }
+
+    @Override
+    public synchronized void sleep(long nanos) throws InterruptedException {
+        if (mInterruptNextSleep) {
+            mInterruptNextSleep = false;
+            throw new InterruptedException("Interrupted by the test");
+        }
+        mSleptNanos += nanos;
+        advance(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Move both the interval and the wall clock time forward.
+     */
+    synchronized void advance(long duration, TimeUnit unit) {
+        mNanos += unit.toNanos(duration);
+        mMillis += unit.toMillis(duration);
+    }
+
+    /**
+     * Interrupt the next sleep before any time passes, like a canceled caller.
+     */
+    synchronized void interruptNextSleep() {
+        mInterruptNextSleep = true;
+    }
+
+    /**
+     * Returns the total time slept in milliseconds.
+     */
+    synchronized long getSleptMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mSleptNanos);
+    }
+}
@@ -0,0 +1,159 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks how {@link ForecastAggregator} puts the intervals into the local days of the city
+ * and sums them up.
+ */
+public class ForecastAggregatorTest {
+
+    /** Offset used for the fixtures without the timezone of the city */
+    private static final int DEFAULT_UTC_OFFSET = 0;
+
+    /** Number of seconds in an hour */
+    private static final int SECONDS_PER_HOUR = 60 * 60;
+
+    /** 2017-01-31 00:00 UTC in seconds since epoch */
+    private static final long JANUARY_31 = 1485820800L;
+
+    @Test
+    public void summarize_positiveOffset_putsLateUtcIntervalIntoNextDay() throws IOException {
+        // Moscow is UTC+3, the interval at 21:00 UTC on January 30 is midnight of January 31
+        ForecastResponse moscow = parse(Fixtures.MOSCOW);
+        DaySummary[] days = moscow.getAggregator()
+                .summarize(Fixtures.RECORDED_AT, moscow.getUtcOffset(), 3);
+
+        // Only 21:00 local is left of today
+        assertEquals(1, days[0].slotCount);
+        assertEquals(-13.045, days[0].tempMin, 0);
+
+        // Tomorrow runs from 00:00 to 21:00 local, its coldest interval is the one
+        // that is still January 30 in UTC
+        assertEquals(8, days[1].slotCount);
+        assertEquals(-13.863, days[1].tempMin, 0);
+        assertEquals(-4.47, days[1].tempMax, 0);
+        assertEquals(71.875, days[1].humidity, 1e-9);
+
+        // The response ends at 18:00 local of the day after
+        assertEquals(7, days[2].slotCount);
+    }
+
+    @Test
+    public void summarize_negativeOffset_keepsEarlyUtcIntervalsInToday() throws IOException {
+        // New York is UTC-5, the intervals at 00:00 and 03:00 UTC on January 31 are
+        // 19:00 and 22:00 of January 30
+        ForecastResponse newYork = parse(Fixtures.NEW_YORK);
+        DaySummary[] days = newYork.getAggregator()
+                .summarize(Fixtures.RECORDED_AT, newYork.getUtcOffset(), 4);
+
+        // Today is from noon on, its coldest interval is already January 31 in UTC
+        assertEquals(4, days[0].slotCount);
+        assertEquals(-0.595, days[0].tempMin, 0);
+        assertEquals(5.65, days[0].tempMax, 0);
+
+        // Tomorrow runs from 01:00 to 22:00 local, the last interval is February 1 in UTC
+        assertEquals(8, days[1].slotCount);
+        assertEquals(-3.973, days[1].tempMin, 0);
+        assertEquals(5.23, days[1].tempMax, 0);
+        assertEquals(73.625, days[1].humidity, 1e-9);
+
+        assertEquals(8, days[2].slotCount);
+        assertEquals(8, days[3].slotCount);
+    }
+
+    @Test
+    public void summarize_splitsDaysAtLocalMidnight() {
+        ForecastAggregator aggregator = new ForecastAggregator();
+        // 22:00 and 23:00 UTC on January 31, then 00:00 UTC on February 1
+        aggregator.addSlot(JANUARY_31 + 22 * SECONDS_PER_HOUR, 1, 1, 10, 800, "clear sky", 1);
+        aggregator.addSlot(JANUARY_31 + 23 * SECONDS_PER_HOUR, 2, 2, 20, 801, "few clouds", 2);
+        aggregator.addSlot(JANUARY_31 + 24 * SECONDS_PER_HOUR, 3, 3, 30, 803, "broken clouds", 3);
+
+        long noon = JANUARY_31 + 12 * SECONDS_PER_HOUR;
+
+        // At UTC+1 the intervals at 23:00 and 00:00 UTC are already February 1
+        DaySummary[] east = aggregator.summarize(noon, SECONDS_PER_HOUR, 2);
+        assertEquals(1, east[0].slotCount);
+        assertEquals(1, east[0].tempMax, 0);
+        assertEquals(2, east[1].slotCount);
+        assertEquals(2, east[1].tempMin, 0);
+        assertEquals(3, east[1].tempMax, 0);
+
+        // At UTC-1 the interval at 00:00 UTC is still January 31
+        DaySummary[] west = aggregator.summarize(noon, -SECONDS_PER_HOUR, 2);
+        assertEquals(3, west[0].slotCount);
+        assertNull(west[1]);
+    }
+
+    @Test
+    public void summarize_countsTodayFromLocalTimeOfNow() {
+        ForecastAggregator aggregator = new ForecastAggregator();
+        // 06:00 UTC on February 1
+        aggregator.addSlot(JANUARY_31 + 30 * SECONDS_PER_HOUR, 1, 1, 10, 800, "clear sky", 1);
+
+        // At 23:30 UTC on January 31 it is already February 1 in UTC+1, and the interval
+        // is today, but in UTC-5 it is still January 31, and the interval is tomorrow
+        long now = JANUARY_31 + 23 * SECONDS_PER_HOUR + 30 * 60;
+        assertEquals(1, aggregator.summarize(now, SECONDS_PER_HOUR, 2)[0].slotCount);
+        assertEquals(1, aggregator.summarize(now, -5 * SECONDS_PER_HOUR, 2)[1].slotCount);
+        assertNull(aggregator.summarize(now, -5 * SECONDS_PER_HOUR, 2)[0]);
+    }
+
+    @Test
+    public void summarize_picksMostFrequentCondition() {
+        DaySummary day = summarizeConditions(800, 500, 801, 500);
+        assertEquals(500, day.conditionId);
+        assertEquals("condition 500", day.description);
+    }
+
+    @Test
+    public void summarize_tiedConditions_earliestWins() throws IOException {
+        // 801 and 500 both come twice, 801 comes first
+        DaySummary day = summarizeConditions(801, 500, 500, 801, 800);
+        assertEquals(801, day.conditionId);
+        assertEquals("condition 801", day.description);
+
+        // Moscow has as many broken clouds as clear skies tomorrow, broken clouds come first
+        DaySummary tomorrow = parse(Fixtures.MOSCOW).getDay(Fixtures.RECORDED_AT, 1);
+        assertEquals(803, tomorrow.conditionId);
+        assertEquals("broken clouds", tomorrow.description);
+    }
+
+    @Test
+    public void summarize_allConditionsDistinct_firstWins() {
+        DaySummary day = summarizeConditions(600, 500, 800, 801);
+        assertEquals(600, day.conditionId);
+        assertEquals("condition 600", day.description);
+
+        // More distinct codes than a day has intervals
+        day = summarizeConditions(200, 300, 500, 600, 700, 800, 801, 802, 803, 804);
+        assertEquals(200, day.conditionId);
+        assertEquals(10, day.slotCount);
+    }
+
+    /**
+     * Sum up one day of intervals with the given condition codes, an hour apart.
+     */
+    private static DaySummary summarizeConditions(int... conditionIds) {
+        ForecastAggregator aggregator = new ForecastAggregator();
+        for (int i = 0; i < conditionIds.length; i++) {
+            aggregator.addSlot(JANUARY_31 + i * SECONDS_PER_HOUR / 2, 1, 1, 10, conditionIds[i],
+                    "condition " + conditionIds[i], 1);
+        }
+        return aggregator.summarize(JANUARY_31, 0, 1)[0];
+    }
+
+    private static ForecastResponse parse(String fixture) throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(Fixtures.read(fixture)),
+                DEFAULT_UTC_OFFSET);
+    }
+}
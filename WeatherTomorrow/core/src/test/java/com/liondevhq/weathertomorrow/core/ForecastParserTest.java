@@ -0,0 +1,120 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the streaming {@link ForecastParser} against a parse of the whole JSON tree,
+ * the way the responses were read before they were streamed.
+ */
+public class ForecastParserTest {
+
+    /** Offset used for the fixtures without the timezone of the city */
+    private static final int DEFAULT_UTC_OFFSET = 0;
+
+    /** Number of days compared, more than any fixture has */
+    private static final int DAY_COUNT = 7;
+
+    /** Charset of the responses */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void parse_matchesTreeParseOfEveryFixture() throws IOException {
+        for (String fixture : Fixtures.ALL) {
+            byte[] body = Fixtures.read(fixture);
+            ForecastResponse expected = parseTree(new String(body, UTF_8), DEFAULT_UTC_OFFSET);
+            ForecastResponse actual =
+                    ForecastParser.parse(new ByteArrayInputStream(body), DEFAULT_UTC_OFFSET);
+
+            assertEquals(fixture, expected.getCityId(), actual.getCityId());
+            assertEquals(fixture, expected.getCityName(), actual.getCityName());
+            assertEquals(fixture, expected.getCityCountry(), actual.getCityCountry());
+            assertEquals(fixture, expected.getUtcOffset(), actual.getUtcOffset());
+            assertEquals(fixture, expected.getAggregator().getSlotCount(),
+                    actual.getAggregator().getSlotCount());
+
+            DaySummary[] expectedDays = expected.getAggregator()
+                    .summarize(Fixtures.RECORDED_AT, expected.getUtcOffset(), DAY_COUNT);
+            DaySummary[] actualDays = actual.getAggregator()
+                    .summarize(Fixtures.RECORDED_AT, actual.getUtcOffset(), DAY_COUNT);
+            for (int day = 0; day < DAY_COUNT; day++) {
+                assertDayEquals(fixture + ", day " + day, expectedDays[day], actualDays[day]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parse_throwsOnIncompleteInterval() throws IOException {
+        // The interval has no wind
+        parse("{\"city\":{\"id\":1,\"name\":\"A\",\"country\":\"GB\"},\"list\":[{\"dt\":1485799200,"
+                + "\"main\":{\"temp_min\":1.5,\"temp_max\":2.9,\"humidity\":78},"
+                + "\"weather\":[{\"id\":802,\"description\":\"scattered clouds\"}]}]}");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parse_throwsWithoutCity() throws IOException {
+        parse("{\"list\":[]}");
+    }
+
+    private static ForecastResponse parse(String json) throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(json.getBytes(UTF_8)),
+                DEFAULT_UTC_OFFSET);
+    }
+
+    private static void assertDayEquals(String message, DaySummary expected, DaySummary actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertEquals(message, expected.tempMin, actual.tempMin, 0);
+        assertEquals(message, expected.tempMax, actual.tempMax, 0);
+        assertEquals(message, expected.humidity, actual.humidity, 0);
+        assertEquals(message, expected.windSpeed, actual.windSpeed, 0);
+        assertEquals(message, expected.conditionId, actual.conditionId);
+        assertEquals(message, expected.description, actual.description);
+        assertEquals(message, expected.slotCount, actual.slotCount);
+    }
+
+    /**
+     * Parse the whole response into a JSON tree first and take the fields out of it.
+     */
+    private static ForecastResponse parseTree(String json, int defaultUtcOffset) {
+        JsonObject baseJsonResponse = new Gson().fromJson(json, JsonObject.class);
+
+        //Get the city object from JSON
+        JsonObject cityObject = baseJsonResponse.getAsJsonObject("city");
+        int cityId = cityObject.get("id").getAsInt();
+        String cityName = cityObject.get("name").getAsString();
+        String cityCountry = cityObject.get("country").getAsString();
+        int utcOffset = cityObject.has("timezone")
+                ? cityObject.get("timezone").getAsInt() : defaultUtcOffset;
+
+        ForecastAggregator aggregator = new ForecastAggregator();
+        JsonArray weatherArray = baseJsonResponse.getAsJsonArray("list");
+        for (JsonElement element : weatherArray) {
+            JsonObject slot = element.getAsJsonObject();
+            JsonObject main = slot.getAsJsonObject("main");
+            JsonObject weather = slot.getAsJsonArray("weather").get(0).getAsJsonObject();
+            aggregator.addSlot(slot.get("dt").getAsLong(),
+                    main.get("temp_min").getAsDouble(),
+                    main.get("temp_max").getAsDouble(),
+                    main.get("humidity").getAsDouble(),
+                    weather.get("id").getAsInt(),
+                    weather.get("description").getAsString(),
+                    slot.getAsJsonObject("wind").get("speed").getAsDouble());
+        }
+        return new ForecastResponse(cityId, cityName, cityCountry, utcOffset, aggregator);
+    }
+}
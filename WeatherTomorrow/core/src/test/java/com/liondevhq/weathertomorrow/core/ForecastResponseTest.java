@@ -0,0 +1,59 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.ForecastAggregator.DaySummary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Parses the recorded responses of {@link Fixtures} the way a refresh does.
+ */
+public class ForecastResponseTest {
+
+    /** Offset passed for the responses without the timezone of the city, one hour */
+    private static final int DEFAULT_UTC_OFFSET = 3600;
+
+    @Test
+    public void parse_readsCityOfEveryFixture() throws IOException {
+        ForecastResponse moscow = parse(Fixtures.MOSCOW);
+        assertEquals(524901, moscow.getCityId());
+        assertEquals("Moscow", moscow.getCityName());
+        assertEquals("RU", moscow.getCityCountry());
+        assertEquals(10800, moscow.getUtcOffset());
+        assertEquals(16, moscow.getAggregator().getSlotCount());
+
+        ForecastResponse newYork = parse(Fixtures.NEW_YORK);
+        assertEquals(5128581, newYork.getCityId());
+        assertEquals("New York", newYork.getCityName());
+        assertEquals("US", newYork.getCityCountry());
+        assertEquals(-18000, newYork.getUtcOffset());
+        assertEquals(40, newYork.getAggregator().getSlotCount());
+    }
+
+    @Test
+    public void parse_usesDefaultOffsetWithoutTimezone() throws IOException {
+        ForecastResponse london = parse(Fixtures.LONDON_NO_TIMEZONE);
+        assertEquals(2643743, london.getCityId());
+        assertEquals("GB", london.getCityCountry());
+        assertEquals(DEFAULT_UTC_OFFSET, london.getUtcOffset());
+    }
+
+    @Test
+    public void getDay_hasEveryIntervalOfTomorrow() throws IOException {
+        for (String fixture : Fixtures.ALL) {
+            DaySummary tomorrow = parse(fixture).getDay(Fixtures.RECORDED_AT, 1);
+            assertNotNull(fixture, tomorrow);
+            assertEquals(fixture, 8, tomorrow.slotCount);
+        }
+    }
+
+    private static ForecastResponse parse(String fixture) throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(Fixtures.read(fixture)),
+                DEFAULT_UTC_OFFSET);
+    }
+}
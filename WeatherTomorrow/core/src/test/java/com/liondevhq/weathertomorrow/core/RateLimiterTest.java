@@ -0,0 +1,196 @@
+package com.liondevhq.weathertomorrow.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the token bucket of {@link RateLimiter} on a {@link FakeClock}.
+ */
+public class RateLimiterTest {
+
+    /** One token a second */
+    private static final int CALLS_PER_MINUTE = 60;
+
+    private FakeClock mClock;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+    }
+
+    @Test
+    public void acquire_handsOutBurstThenWaitsForRefill() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, null, mClock);
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(0, acquireMillis(rateLimiter));
+
+        // The bucket is empty, every further token comes a second after the one before
+        assertEquals(1000, acquireMillis(rateLimiter));
+        assertEquals(1000, acquireMillis(rateLimiter));
+        assertEquals(2000, mClock.getSleptMillis());
+    }
+
+    @Test
+    public void acquire_refillsUpToCapacity() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, null, mClock);
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire();
+        }
+
+        // Two tokens come back in two seconds
+        mClock.advance(2, TimeUnit.SECONDS);
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(1000, acquireMillis(rateLimiter));
+
+        // An hour later the bucket holds no more than its capacity
+        mClock.advance(1, TimeUnit.HOURS);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, acquireMillis(rateLimiter));
+        }
+        assertEquals(1000, acquireMillis(rateLimiter));
+    }
+
+    @Test
+    public void forQuota_takesBurstOutOfRate() throws InterruptedException {
+        // 60 calls a minute are a burst of 6 and 54 calls a minute after it
+        RateLimiter rateLimiter = RateLimiter.forQuota(CALLS_PER_MINUTE, null, mClock);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(0, acquireMillis(rateLimiter));
+        }
+        assertEquals(60000 / 54, acquireMillis(rateLimiter));
+
+        // No minute gets more calls than the quota: the burst and 54 more after it
+        long start = mClock.nanoTime();
+        for (int i = 0; i < 54; i++) {
+            rateLimiter.acquire();
+        }
+        assertEquals(TimeUnit.MINUTES.toMillis(1),
+                TimeUnit.NANOSECONDS.toMillis(mClock.nanoTime() - start), 0);
+    }
+
+    @Test
+    public void forQuota_smallQuota_keepsBurstOfOne() throws InterruptedException {
+        // 5 calls a minute are a burst of 1 and 4 calls a minute
+        RateLimiter rateLimiter = RateLimiter.forQuota(5, null, mClock);
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(15000, acquireMillis(rateLimiter));
+    }
+
+    @Test
+    public void pause_holdsTokensUntilItEnds() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, null, mClock);
+        rateLimiter.pause(5000);
+
+        // The bucket is full, but the server asked to wait
+        assertEquals(5000, acquireMillis(rateLimiter));
+    }
+
+    @Test
+    public void pause_emptiesBucket() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, null, mClock);
+        rateLimiter.pause(200);
+
+        // The pause is shorter than the time the next token takes to come back
+        assertEquals(1000, acquireMillis(rateLimiter));
+    }
+
+    @Test
+    public void acquire_interrupted_givesTokenBack() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 1, null, mClock);
+        assertEquals(0, acquireMillis(rateLimiter));
+
+        // The caller is canceled while it waits for the next token
+        mClock.interruptNextSleep();
+        try {
+            rateLimiter.acquire();
+            fail("The wait was interrupted");
+        } catch (InterruptedException expected) {
+            // The token is given back
+        }
+        assertEquals(1, rateLimiter.getCallsToday());
+
+        // The next caller waits for the same token, not for one more
+        assertEquals(1000, acquireMillis(rateLimiter));
+        assertEquals(2, rateLimiter.getCallsToday());
+    }
+
+    @Test
+    public void savedState_isLoadedOnFirstUse() throws InterruptedException {
+        long today = TimeUnit.MILLISECONDS.toDays(mClock.currentTimeMillis());
+        // Saved empty half a second ago, after 42 calls today
+        MemoryStore store = new MemoryStore(new RateLimiter.State(0,
+                mClock.currentTimeMillis() - 500, today, 42));
+
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, store, mClock);
+        assertEquals(0, store.mLoads);
+
+        // Only half a token came back while the process was gone
+        assertEquals(500, acquireMillis(rateLimiter));
+        assertEquals(1, store.mLoads);
+        assertEquals(43, rateLimiter.getCallsToday());
+        assertEquals(1, store.mLoads);
+    }
+
+    @Test
+    public void savedState_ofAnotherDay_startsCountingAgain() throws InterruptedException {
+        long yesterday = TimeUnit.MILLISECONDS.toDays(mClock.currentTimeMillis()) - 1;
+        MemoryStore store = new MemoryStore(new RateLimiter.State(0,
+                mClock.currentTimeMillis() - TimeUnit.HOURS.toMillis(1), yesterday, 1000));
+
+        RateLimiter rateLimiter = new RateLimiter(CALLS_PER_MINUTE, 3, store, mClock);
+        // The bucket has refilled in the hour
+        assertEquals(0, acquireMillis(rateLimiter));
+        assertEquals(1, rateLimiter.getCallsToday());
+    }
+
+    @Test
+    public void save_keepsCallsSavedBeforeTheRestart() {
+        long today = TimeUnit.MILLISECONDS.toDays(mClock.currentTimeMillis());
+        MemoryStore store = new MemoryStore(new RateLimiter.State(3,
+                mClock.currentTimeMillis(), today, 42));
+
+        // Saving before any request doesn't overwrite the saved calls
+        new RateLimiter(CALLS_PER_MINUTE, 3, store, mClock).save();
+        assertNotNull(store.mState);
+        assertEquals(42, store.mState.calls);
+    }
+
+    /**
+     * Take a token and return the time waited for it in milliseconds.
+     */
+    private static long acquireMillis(RateLimiter rateLimiter) throws InterruptedException {
+        return TimeUnit.NANOSECONDS.toMillis(rateLimiter.acquire());
+    }
+
+    /**
+     * Store that keeps the state in memory and counts the loads.
+     */
+    private static final class MemoryStore implements QuotaStore {
+
+        RateLimiter.State mState;
+        int mLoads;
+
+        MemoryStore(RateLimiter.State state) {
+            mState = state;
+        }
+
+        @Override
+        public RateLimiter.State load() {
+            mLoads++;
+            return mState;
+        }
+
+        @Override
+        public void save(RateLimiter.State state) {
+            mState = state;
+        }
+    }
+}
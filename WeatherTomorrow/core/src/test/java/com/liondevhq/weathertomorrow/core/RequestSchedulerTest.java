@@ -0,0 +1,187 @@
+package com.liondevhq.weathertomorrow.core;
+
+import com.liondevhq.weathertomorrow.core.metrics.RequestMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the retries of {@link RequestScheduler} against a local server that answers with
+ * the given response codes, on a {@link FakeClock}.
+ */
+public class RequestSchedulerTest {
+
+    /** Offset used for the fixtures without the timezone of the city */
+    private static final int DEFAULT_UTC_OFFSET = 0;
+
+    /** Backoff before the second attempt in the tests */
+    private static final long BASE_BACKOFF_MILLIS = 100;
+
+    /** Longest backoff in the tests */
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private FakeClock mClock;
+    private HttpServer mServer;
+    private URL mUrl;
+
+    /** Response codes and Retry-After seconds of the next requests, 200 once they run out */
+    private final Queue<long[]> mResponses = new ArrayDeque<>();
+
+    /** Number of requests the server got */
+    private int mRequests;
+
+    @Before
+    public void setUp() throws IOException {
+        mClock = new FakeClock();
+        final byte[] body = Fixtures.read(Fixtures.MOSCOW);
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                long[] response;
+                synchronized (RequestSchedulerTest.this) {
+                    mRequests++;
+                    response = mResponses.poll();
+                }
+                if (response != null && response[1] >= 0) {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(response[1]));
+                }
+                byte[] responseBody = response == null ? body : new byte[0];
+                exchange.sendResponseHeaders(response == null ? 200 : (int) response[0],
+                        responseBody.length > 0 ? responseBody.length : -1);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(responseBody);
+                outputStream.close();
+            }
+        });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/forecast");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void fetch_serverError_waitsForRetryAfter() throws Exception {
+        respond(503, 3);
+        RequestMetrics metrics = new RequestMetrics("Moscow");
+
+        ForecastResponse response = newScheduler(null, 3).fetch(mUrl, DEFAULT_UTC_OFFSET, metrics);
+
+        assertEquals("Moscow", response.getCityName());
+        assertEquals(2, mRequests);
+        assertEquals(2, metrics.getAttempts());
+        // The server asked for longer than any backoff
+        assertEquals(3000, mClock.getSleptMillis());
+        assertEquals(3000, TimeUnit.NANOSECONDS.toMillis(metrics.getWaitNanos()));
+    }
+
+    @Test
+    public void fetch_quotaExceeded_pausesRateLimiter() throws Exception {
+        respond(429, 2);
+        RateLimiter rateLimiter = new RateLimiter(60, 3, null, mClock);
+        RequestMetrics metrics = new RequestMetrics("Moscow");
+
+        newScheduler(rateLimiter, 3).fetch(mUrl, DEFAULT_UTC_OFFSET, metrics);
+
+        // The second attempt waited for the limiter, which the 429 paused
+        assertEquals(2, mRequests);
+        assertEquals(2000, mClock.getSleptMillis());
+        assertEquals(2000, TimeUnit.NANOSECONDS.toMillis(metrics.getWaitNanos()));
+
+        // Every other request waits for the pause too
+        rateLimiter.pause(1000);
+        assertEquals(1000, TimeUnit.NANOSECONDS.toMillis(rateLimiter.acquire()));
+    }
+
+    @Test
+    public void fetch_clientError_isNotRetried() throws Exception {
+        respond(404, -1);
+        try {
+            newScheduler(null, 3).fetch(mUrl, DEFAULT_UTC_OFFSET, new RequestMetrics("Moscow"));
+            fail("A 404 must not be retried");
+        } catch (ForecastHttpException e) {
+            assertEquals(404, e.getResponseCode());
+        }
+        assertEquals(1, mRequests);
+        assertEquals(0, mClock.getSleptMillis());
+    }
+
+    @Test
+    public void fetch_givesUpAfterMaxAttempts() throws Exception {
+        respond(500, -1);
+        respond(500, -1);
+        respond(500, -1);
+        try {
+            newScheduler(null, 3).fetch(mUrl, DEFAULT_UTC_OFFSET, new RequestMetrics("Moscow"));
+            fail("The last attempt failed");
+        } catch (ForecastHttpException e) {
+            assertEquals(500, e.getResponseCode());
+            assertEquals(-1, e.getRetryAfterSeconds());
+        }
+        assertEquals(3, mRequests);
+        // Two backoffs of at most 100 and 200 milliseconds
+        assertTrue(mClock.getSleptMillis() <= 300);
+    }
+
+    @Test
+    public void getBackoffMillis_isFullJitterUpToExponentialCeiling() {
+        RequestScheduler scheduler = newScheduler(null, 10);
+        long[] ceilings = { 100, 200, 400, 800, 1000, 1000 };
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long ceiling = ceilings[attempt - 1];
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < 1000; i++) {
+                long backoff = scheduler.getBackoffMillis(attempt, -1);
+                min = Math.min(min, backoff);
+                max = Math.max(max, backoff);
+            }
+            assertTrue("attempt " + attempt + ": " + min, min >= 0);
+            assertTrue("attempt " + attempt + ": " + max, max <= ceiling);
+            // The waits are spread over the whole range, not bunched at the ceiling
+            assertTrue("attempt " + attempt + ": " + min, min < ceiling / 4);
+            assertTrue("attempt " + attempt + ": " + max, max > ceiling * 3 / 4);
+        }
+    }
+
+    @Test
+    public void getBackoffMillis_neverShorterThanRetryAfter() {
+        RequestScheduler scheduler = newScheduler(null, 3);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(5000, scheduler.getBackoffMillis(1, 5));
+            assertTrue(scheduler.getBackoffMillis(1, 0) <= BASE_BACKOFF_MILLIS);
+        }
+    }
+
+    private RequestScheduler newScheduler(RateLimiter rateLimiter, int maxAttempts) {
+        return new RequestScheduler(rateLimiter, maxAttempts, BASE_BACKOFF_MILLIS,
+                MAX_BACKOFF_MILLIS, mClock);
+    }
+
+    /**
+     * Answer the next request with the given code and Retry-After, -1 for none.
+     */
+    private synchronized void respond(int responseCode, long retryAfterSeconds) {
+        mResponses.add(new long[] { responseCode, retryAfterSeconds });
+    }
+}